@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger.bench;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.codepunks.keyflinger.KeyFlingEngine;
+import org.codepunks.keyflinger.TouchJournal;
+
+/**
+ * Touch corpora for the benchmarks, as journals in the same form the
+ * detector records them: for every event, one sample per pointer down, then
+ * the action, once per pointer for a move.
+ */
+public class Corpus
+{
+    public static final String TYPING = "TYPING";
+    public static final String ROLLOVER = "ROLLOVER";
+    public static final String LONG_PRESS_REPEAT = "LONG_PRESS_REPEAT";
+
+    // One frame of touch input
+    private static final int FRAME = 16;
+    private static final int MAX_POINTERS = 2;
+
+    private final TouchJournal mJournal;
+    private final Random mRandom;
+    private long mTime = 1000;
+    private final float[] mX = new float[MAX_POINTERS];
+    private final float[] mY = new float[MAX_POINTERS];
+    private final boolean[] mDown = new boolean[MAX_POINTERS];
+
+    private Corpus(long seed)
+    {
+        mJournal = new TouchJournal(1 << 16);
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * @param journal Path of a journal saved from a device, or empty to
+     * build the named synthetic scenario.
+     */
+    public static TouchJournal load(String scenario, String journal)
+        throws IOException
+    {
+        if ((journal != null) && (journal.length() > 0))
+        {
+            InputStream in = new FileInputStream(journal);
+            try
+            {
+                return TouchJournal.readFrom(in);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        Corpus c = new Corpus(42);
+        if (TYPING.equals(scenario))
+        {
+            c.typing(400);
+        }
+        else if (ROLLOVER.equals(scenario))
+        {
+            c.rollover(200);
+        }
+        else if (LONG_PRESS_REPEAT.equals(scenario))
+        {
+            c.longPressRepeat(20);
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unknown scenario " + scenario);
+        }
+        return c.mJournal;
+    }
+
+    /**
+     * One finger, every other stroke a tap and the rest flings in turning
+     * directions, with a short pause between strokes.
+     */
+    private void typing(int strokes)
+    {
+        for (int i = 0; i < strokes; ++i)
+        {
+            down(0, KeyFlingEngine.ACTION_DOWN);
+            if ((i & 1) == 0)
+            {
+                move(1 + mRandom.nextInt(4));
+            }
+            else
+            {
+                fling(0, i / 2 % 4);
+            }
+            up(0, KeyFlingEngine.ACTION_UP);
+            mTime += 80 + mRandom.nextInt(80);
+        }
+    }
+
+    /**
+     * Two thumbs, each going down before the other has lifted.
+     */
+    private void rollover(int pairs)
+    {
+        for (int i = 0; i < pairs; ++i)
+        {
+            down(0, KeyFlingEngine.ACTION_DOWN);
+            move(2);
+            down(1, KeyFlingEngine.ACTION_POINTER_DOWN);
+            if ((i & 1) == 0)
+            {
+                move(3);
+            }
+            else
+            {
+                fling(1, i / 2 % 4);
+            }
+            up(0, KeyFlingEngine.ACTION_POINTER_UP);
+            move(2);
+            up(1, KeyFlingEngine.ACTION_UP);
+            mTime += 60 + mRandom.nextInt(60);
+        }
+    }
+
+    /**
+     * A finger held well past the long press and into key repeat, jittering
+     * inside the touch slop the whole time.
+     */
+    private void longPressRepeat(int strokes)
+    {
+        for (int i = 0; i < strokes; ++i)
+        {
+            down(0, KeyFlingEngine.ACTION_DOWN);
+            move(1500 / FRAME);
+            up(0, KeyFlingEngine.ACTION_UP);
+            mTime += 200;
+        }
+    }
+
+    private void fling(int pointer, int direction)
+    {
+        final float dx = (direction == 2) ? -12 : (direction == 3) ? 12 : 0;
+        final float dy = (direction == 0) ? -12 : (direction == 1) ? 12 : 0;
+        for (int f = 0; f < 5; ++f)
+        {
+            mX[pointer] += dx;
+            mY[pointer] += dy;
+            frame(KeyFlingEngine.ACTION_MOVE, -1);
+        }
+    }
+
+    private void move(int frames)
+    {
+        for (int f = 0; f < frames; ++f)
+        {
+            for (int p = 0; p < MAX_POINTERS; ++p)
+            {
+                if (mDown[p])
+                {
+                    mX[p] += mRandom.nextInt(3) - 1;
+                    mY[p] += mRandom.nextInt(3) - 1;
+                }
+            }
+            frame(KeyFlingEngine.ACTION_MOVE, -1);
+        }
+    }
+
+    private void down(int pointer, int action)
+    {
+        mX[pointer] = 20 + mRandom.nextInt(280);
+        mY[pointer] = 20 + mRandom.nextInt(200);
+        mDown[pointer] = true;
+        frame(action, pointer);
+    }
+
+    private void up(int pointer, int action)
+    {
+        frame(action, pointer);
+        mDown[pointer] = false;
+    }
+
+    private void frame(int action, int pointer)
+    {
+        mTime += FRAME;
+        for (int p = 0; p < MAX_POINTERS; ++p)
+        {
+            if (mDown[p])
+            {
+                mJournal.recordSample(p, mX[p], mY[p], mTime);
+            }
+        }
+        if (action == KeyFlingEngine.ACTION_MOVE)
+        {
+            for (int p = 0; p < MAX_POINTERS; ++p)
+            {
+                if (mDown[p])
+                {
+                    mJournal.recordAction(action, p, mX[p], mY[p], mTime);
+                }
+            }
+        }
+        else
+        {
+            mJournal.recordAction(action, pointer, mX[pointer], mY[pointer],
+                                  mTime);
+        }
+    }
+}
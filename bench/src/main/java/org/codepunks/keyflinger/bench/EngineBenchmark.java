@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.codepunks.keyflinger.KeyFlingEngine;
+import org.codepunks.keyflinger.TouchJournal;
+import org.codepunks.keyflinger.TouchReplayer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Replays a touch corpus through the gesture engine, either a whole corpus
+ * per operation or one record per operation for the latency of a single
+ * event.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EngineBenchmark
+{
+    @Param({ Corpus.TYPING, Corpus.ROLLOVER, Corpus.LONG_PRESS_REPEAT })
+    public String scenario;
+
+    @Param({ "" })
+    public String journal;
+
+    private TouchJournal mCorpus;
+    private TouchReplayer mReplayer;
+    private CountingListener mListener;
+    private int mNext;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        mCorpus = Corpus.load(scenario, journal);
+        mListener = new CountingListener();
+        mReplayer = new TouchReplayer(mListener);
+        // As KeyFlinger configures it by default
+        final KeyFlingEngine engine = mReplayer.getEngine();
+        engine.setParams(10, 100, 5, true);
+        engine.setDoubleTapEnabled(true);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int corpus()
+    {
+        mReplayer.replay(mCorpus);
+        flush();
+        return mListener.mCallbacks;
+    }
+
+    @Benchmark
+    @BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean perEvent()
+    {
+        final boolean handled = mReplayer.replay(mCorpus, mNext);
+        if (++mNext == mCorpus.size())
+        {
+            mNext = 0;
+            flush();
+        }
+        return handled;
+    }
+
+    /**
+     * Fire whatever is left so the next pass starts from a quiet engine.
+     */
+    private void flush()
+    {
+        mReplayer.advanceTo(mCorpus.getTime(mCorpus.size() - 1) + 10000);
+    }
+
+    private static class CountingListener implements KeyFlingEngine.Listener
+    {
+        int mCallbacks;
+
+        public boolean onDown(int slot, int pid)
+        {
+            ++mCallbacks;
+            return false;
+        }
+
+        public void onShowPress(int slot, int pid)
+        {
+            ++mCallbacks;
+        }
+
+        public boolean onSingleTapUp(int slot, int pid)
+        {
+            ++mCallbacks;
+            return false;
+        }
+
+        public boolean onRepeat(int slot, int pid)
+        {
+            ++mCallbacks;
+            return true;
+        }
+
+        public boolean onScroll(int slot, int pid, float distanceX,
+                                float distanceY)
+        {
+            ++mCallbacks;
+            return false;
+        }
+
+        public void onLongPress(int slot, int pid)
+        {
+            ++mCallbacks;
+        }
+
+        public boolean onFling(int slot, int pid, float velocityX,
+                               float velocityY)
+        {
+            ++mCallbacks;
+            return true;
+        }
+
+        public boolean onSingleTapConfirmed(int slot, int pid)
+        {
+            ++mCallbacks;
+            return false;
+        }
+
+        public boolean onDoubleTap(int slot, int pid)
+        {
+            ++mCallbacks;
+            return false;
+        }
+
+        public boolean onDoubleTapEvent(int slot, int pid)
+        {
+            ++mCallbacks;
+            return false;
+        }
+
+        public void onUp(int slot, int pid)
+        {
+            ++mCallbacks;
+        }
+    }
+}
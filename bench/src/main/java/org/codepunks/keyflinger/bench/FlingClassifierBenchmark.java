@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.codepunks.keyflinger.FlingClassifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The direction resolution done for every fling in LatinKeyboardView, over
+ * flings spread evenly around the circle so no branch is always taken.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FlingClassifierBenchmark
+{
+    private static final int FLINGS = 1024;
+
+    @Param({ "false", "true" })
+    public boolean diagonals;
+
+    private final FlingClassifier mClassifier = new FlingClassifier(10);
+    private final float[] mDeltaX = new float[FLINGS];
+    private final float[] mDeltaY = new float[FLINGS];
+    private final float[] mVelocityX = new float[FLINGS];
+    private final float[] mVelocityY = new float[FLINGS];
+    private int mNext;
+
+    @Setup
+    public void setup()
+    {
+        Random random = new Random(42);
+        for (int i = 0; i < FLINGS; ++i)
+        {
+            final double angle = random.nextDouble() * 2 * Math.PI;
+            final double length = 5 + random.nextInt(80);
+            mDeltaX[i] = (float)(Math.cos(angle) * length);
+            mDeltaY[i] = (float)(Math.sin(angle) * length);
+            mVelocityX[i] = mDeltaX[i] * 20;
+            mVelocityY[i] = mDeltaY[i] * 20;
+        }
+    }
+
+    @Benchmark
+    public int classify()
+    {
+        final int i = mNext;
+        mNext = (i + 1) & (FLINGS - 1);
+        return mClassifier.classify(mDeltaX[i], mDeltaY[i], mVelocityX[i],
+                                    mVelocityY[i], diagonals);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.codepunks.keyflinger.util.VelocityTracker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One frame of samples for every pointer down, and the velocity of all of
+ * them as computed at a fling, with each estimator.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class VelocityTrackerBenchmark
+{
+    private static final int FRAME = 16;
+
+    @Param({ "1", "2", "5" })
+    public int pointers;
+
+    // VelocityTracker ESTIMATOR_AVERAGE, ESTIMATOR_LINEAR, ESTIMATOR_QUADRATIC
+    @Param({ "0", "1", "2" })
+    public int estimator;
+
+    private VelocityTracker mTracker;
+    private long mTime;
+    private float mPos;
+
+    @Setup
+    public void setup()
+    {
+        mTracker = VelocityTracker.obtain();
+        mTracker.setEstimator(estimator);
+        mTime = 1000;
+        // Fill the history so computing looks at a full window
+        for (int i = 0; i < 20; ++i)
+        {
+            addMovement();
+        }
+    }
+
+    @Benchmark
+    public void addMovement()
+    {
+        mTime += FRAME;
+        mPos += 3;
+        for (int p = 0; p < pointers; ++p)
+        {
+            mTracker.addMovement(p, mPos + p, mPos - p, mTime);
+        }
+    }
+
+    @Benchmark
+    public float addMovementAndCompute()
+    {
+        addMovement();
+        mTracker.computeCurrentVelocity(1000, 4000);
+        float sum = 0;
+        for (int p = 0; p < pointers; ++p)
+        {
+            sum += mTracker.getXVelocity(p) + mTracker.getYVelocity(p);
+        }
+        return sum;
+    }
+}
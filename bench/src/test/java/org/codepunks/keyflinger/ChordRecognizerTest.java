@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChordRecognizerTest
+{
+    private static final int TAP = ChordTable.DIRECTION_TAP;
+
+    private List<String> mReported;
+    private ChordTable mTable;
+    private ChordRecognizer mChords;
+
+    @Before
+    public void setUp()
+    {
+        mReported = new ArrayList<String>();
+        mTable = new ChordTable();
+        mChords = new ChordRecognizer(new ChordRecognizer.Listener()
+            {
+                public void onGesture(int key, int direction)
+                {
+                    mReported.add("key " + key + "/" + direction);
+                }
+
+                public void onChord(int code)
+                {
+                    mReported.add("chord " + code);
+                }
+            });
+    }
+
+    private void chord(int code, int... keyDirections)
+    {
+        final int count = keyDirections.length / 2;
+        final int[] gestures = new int[count];
+        for (int i = 0; i < count; ++i)
+        {
+            gestures[i] = ChordTable.gesture(keyDirections[2 * i],
+                                             keyDirections[2 * i + 1]);
+        }
+        mTable.put(ChordTable.signature(gestures, count), code);
+        mChords.setTable(mTable);
+    }
+
+    private void tap(int slot, int key)
+    {
+        mChords.onDown(slot);
+        mChords.onGesture(slot, key, TAP);
+        mChords.onUp(slot);
+    }
+
+    @Test
+    public void twoFingerChord()
+    {
+        chord(100, 1, TAP, 2, TAP);
+        mChords.onDown(0);
+        mChords.onDown(1);
+        mChords.onGesture(1, 2, TAP);
+        mChords.onUp(1);
+        assertEquals(0, mReported.size());
+        mChords.onGesture(0, 1, TAP);
+        mChords.onUp(0);
+        assertEquals("[chord 100]", mReported.toString());
+    }
+
+    @Test
+    public void noChordReportsInPressOrder()
+    {
+        chord(100, 1, TAP, 2, TAP);
+        mChords.onDown(0);
+        mChords.onDown(1);
+        mChords.onGesture(1, 3, TAP);
+        mChords.onUp(1);
+        mChords.onGesture(0, 4, 0);
+        mChords.onUp(0);
+        assertEquals("[key 4/0, key 3/-1]", mReported.toString());
+    }
+
+    @Test
+    public void tapAgainWhileHolding()
+    {
+        // Slot 1 taps twice while slot 0 holds the group, the detector
+        // hands the second press the same slot
+        chord(100, 1, 0, 2, TAP, 3, TAP);
+        mChords.onDown(0);
+        tap(1, 2);
+        tap(1, 3);
+        assertEquals(0, mReported.size());
+        mChords.onGesture(0, 1, 0);
+        mChords.onUp(0);
+        assertEquals("[chord 100]", mReported.toString());
+    }
+
+    @Test
+    public void tapAgainWhileHoldingWithoutChord()
+    {
+        chord(100, 1, TAP, 2, TAP);
+        mChords.onDown(0);
+        tap(1, 5);
+        tap(1, 6);
+        mChords.onGesture(0, 4, TAP);
+        mChords.onUp(0);
+        assertEquals("[key 4/-1, key 5/-1, key 6/-1]", mReported.toString());
+    }
+
+    @Test
+    public void loneFingerReportedAtOnce()
+    {
+        chord(100, 1, TAP, 2, TAP);
+        tap(0, 1);
+        assertEquals("[key 1/-1]", mReported.toString());
+    }
+
+    @Test
+    public void pressOnNoKeyLeftOut()
+    {
+        chord(100, 1, TAP, 2, TAP);
+        mChords.onDown(0);
+        mChords.onDown(1);
+        mChords.onDown(2);
+        mChords.onGesture(2, KeyGrid.NOT_A_KEY, 0);
+        mChords.onUp(2);
+        mChords.onGesture(1, 2, TAP);
+        mChords.onUp(1);
+        mChords.onGesture(0, 1, TAP);
+        mChords.onUp(0);
+        assertEquals("[chord 100]", mReported.toString());
+    }
+
+    @Test
+    public void lonePressOnNoKeyReportsNothing()
+    {
+        chord(100, 1, TAP, 2, TAP);
+        tap(0, KeyGrid.NOT_A_KEY);
+        assertEquals(0, mReported.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void gestureRejectsKeyOutOfRange()
+    {
+        ChordTable.gesture(ChordTable.MAX_KEY + 1, TAP);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FlingClassifierTest
+{
+    private static final int TRAVEL = 10;
+
+    private final FlingClassifier mClassifier = new FlingClassifier(TRAVEL);
+
+    /**
+     * The onFling chain that classified every fling before there were
+     * diagonals.
+     */
+    private static int straight(float deltaX, float deltaY, float velocityX,
+                                float velocityY)
+    {
+        final float absX = Math.abs(velocityX);
+        final float absY = Math.abs(velocityY);
+        if ((absY < absX) && (deltaX > TRAVEL))
+        {
+            return FlingClassifier.RIGHT;
+        }
+        else if ((absY < absX) && (deltaX < -TRAVEL))
+        {
+            return FlingClassifier.LEFT;
+        }
+        else if ((absX < absY) && (deltaY < -TRAVEL))
+        {
+            return FlingClassifier.UP;
+        }
+        else if ((absX < absY / 2) && (deltaY > TRAVEL))
+        {
+            return FlingClassifier.DOWN;
+        }
+        return FlingClassifier.NONE;
+    }
+
+    private int four(float deltaX, float deltaY, float velocityX,
+                     float velocityY)
+    {
+        return mClassifier.classify(deltaX, deltaY, velocityX, velocityY,
+                                    false);
+    }
+
+    private int eight(float deltaX, float deltaY)
+    {
+        return mClassifier.classify(deltaX, deltaY, deltaX, deltaY, true);
+    }
+
+    @Test
+    public void fourWayMatchesOnFlingChain()
+    {
+        final Random random = new Random(1);
+        for (int t = 0; t < 200000; ++t)
+        {
+            final float deltaX = random.nextInt(81) - 40 + random.nextFloat();
+            final float deltaY = random.nextInt(81) - 40 + random.nextFloat();
+            final float velocityX = random.nextInt(2001) - 1000;
+            final float velocityY = random.nextInt(2001) - 1000;
+            assertEquals(deltaX + "," + deltaY + " at " + velocityX + "," +
+                         velocityY,
+                         straight(deltaX, deltaY, velocityX, velocityY),
+                         four(deltaX, deltaY, velocityX, velocityY));
+        }
+    }
+
+    @Test
+    public void fourWayBoundaries()
+    {
+        // Travel along the faster axis alone must pass the dead zone
+        assertEquals(FlingClassifier.NONE, four(10, 0, 100, 0));
+        assertEquals(FlingClassifier.RIGHT, four(11, 0, 100, 0));
+        assertEquals(FlingClassifier.RIGHT, four(11, 30, 100, 99));
+        assertEquals(FlingClassifier.LEFT, four(-11, 0, -100, 0));
+        assertEquals(FlingClassifier.UP, four(0, -11, 0, -100));
+        assertEquals(FlingClassifier.UP, four(30, -11, 99, -100));
+        // Down needs the velocity twice as steep
+        assertEquals(FlingClassifier.DOWN, four(0, 11, 49, 100));
+        assertEquals(FlingClassifier.NONE, four(0, 11, 50, 100));
+        // The velocity picks the axis, not the travel
+        assertEquals(FlingClassifier.NONE, four(0, 30, 100, 0));
+        assertEquals(FlingClassifier.NONE, four(30, 30, 100, 100));
+    }
+
+    @Test
+    public void eightWayBoundaries()
+    {
+        // 22.5 degrees is just under 106 / 256 of rise over run
+        assertEquals(FlingClassifier.RIGHT, eight(100, 41));
+        assertEquals(FlingClassifier.DOWN_RIGHT, eight(100, 42));
+        assertEquals(FlingClassifier.UP_LEFT, eight(-100, -42));
+        // 67.5 degrees is just over 618 / 256
+        assertEquals(FlingClassifier.DOWN_LEFT, eight(-42, 100));
+        assertEquals(FlingClassifier.DOWN, eight(-41, 100));
+        assertEquals(FlingClassifier.UP_RIGHT, eight(42, -100));
+        assertEquals(FlingClassifier.UP, eight(41, -100));
+        // The dead zone is a circle
+        assertEquals(FlingClassifier.NONE, eight(7, 7));
+        assertEquals(FlingClassifier.DOWN_RIGHT, eight(8, 8));
+    }
+
+    @Test
+    public void eightWayRejectsFlingBack()
+    {
+        assertEquals(FlingClassifier.NONE,
+                     mClassifier.classify(30, 0, -100, 0, true));
+        assertEquals(FlingClassifier.NONE,
+                     mClassifier.classify(30, 30, -100, -100, true));
+    }
+}
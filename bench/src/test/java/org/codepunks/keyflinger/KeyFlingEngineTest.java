@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class KeyFlingEngineTest
+{
+    private final List<String> mEvents = new ArrayList<String>();
+    private final List<Long> mWakeups = new ArrayList<Long>();
+
+    private final KeyFlingEngine mEngine = new KeyFlingEngine(
+        new KeyFlingEngine.Listener()
+        {
+            public boolean onDown(int slot, int pid) { return false; }
+            public void onShowPress(int slot, int pid)
+            {
+                mEvents.add("showPress " + pid);
+            }
+            public boolean onSingleTapUp(int slot, int pid) { return false; }
+            public boolean onRepeat(int slot, int pid) { return false; }
+            public boolean onScroll(int slot, int pid, float dx, float dy)
+            {
+                return false;
+            }
+            public void onLongPress(int slot, int pid)
+            {
+                mEvents.add("longPress " + pid);
+            }
+            public boolean onFling(int slot, int pid, float vx, float vy)
+            {
+                return false;
+            }
+            public boolean onSingleTapConfirmed(int slot, int pid)
+            {
+                return false;
+            }
+            public boolean onDoubleTap(int slot, int pid) { return false; }
+            public boolean onDoubleTapEvent(int slot, int pid) { return false; }
+            public void onUp(int slot, int pid) { }
+        },
+        new KeyFlingEngine.Scheduler()
+        {
+            public void wakeAt(long when)
+            {
+                mWakeups.add(when);
+            }
+        });
+
+    @Test
+    public void cancellingTheEarliestTimerFindsTheNextOne()
+    {
+        mEngine.setDoubleTapEnabled(false);
+        mEngine.onTouchEvent(KeyFlingEngine.ACTION_DOWN, 0, 0, 0, 0);
+        mEngine.onTouchEvent(KeyFlingEngine.ACTION_POINTER_DOWN, 1, 0, 0, 50);
+        assertEquals(100, mEngine.getNextDeadline());
+
+        // Leaving the tap region drops both of pointer 0's timers
+        mEngine.onTouchEvent(KeyFlingEngine.ACTION_MOVE, 0, 100, 0, 60);
+        assertEquals(150, mEngine.getNextDeadline());
+
+        // The stale wakeup finds nothing due and asks for the next one
+        mEngine.onTimer(100);
+        assertEquals(0, mEvents.size());
+        assertEquals(Arrays.asList(600L, 100L, 150L), mWakeups);
+
+        mEngine.onTimer(700);
+        assertEquals(Arrays.asList("showPress 1", "longPress 1"), mEvents);
+        assertEquals(KeyFlingEngine.NO_DEADLINE, mEngine.getNextDeadline());
+    }
+
+    @Test
+    public void pushingBackTheEarliestTimerFindsTheNextOne()
+    {
+        mEngine.setDoubleTapEnabled(false);
+        mEngine.onTouchEvent(KeyFlingEngine.ACTION_DOWN, 0, 0, 0, 0);
+        mEngine.onTouchEvent(KeyFlingEngine.ACTION_POINTER_DOWN, 1, 0, 0, 50);
+        mEngine.onTimer(100);
+        assertEquals(150, mEngine.getNextDeadline());
+
+        // A second down on pointer 0 schedules its timers again, later on
+        mEngine.onTouchEvent(KeyFlingEngine.ACTION_POINTER_UP, 0, 0, 0, 120);
+        mEngine.onTouchEvent(KeyFlingEngine.ACTION_POINTER_DOWN, 0, 0, 0, 130);
+        assertEquals(150, mEngine.getNextDeadline());
+        mEngine.onTimer(240);
+        assertEquals(Arrays.asList("showPress 0", "showPress 1",
+                                   "showPress 0"), mEvents);
+        assertEquals(650, mEngine.getNextDeadline());
+    }
+}
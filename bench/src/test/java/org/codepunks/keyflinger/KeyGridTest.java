@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class KeyGridTest
+{
+    private static final int NOT_A_KEY = KeyGrid.NOT_A_KEY;
+    private static final int EDGE_LEFT = 1;
+    private static final int EDGE_RIGHT = 2;
+    private static final int EDGE_TOP = 4;
+    private static final int EDGE_BOTTOM = 8;
+
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 256;
+    private static final int THRESHOLD = 60 * 60 * 2;
+
+    private int[] mX;
+    private int[] mY;
+    private int[] mWidth;
+    private int[] mHeight;
+    private int[] mEdgeFlags;
+    private int[][] mCodes;
+    private KeyGrid mGrid;
+
+    /**
+     * Four staggered rows of 44x60 keys with gaps, a wide space bar and a
+     * shift key in the last row.
+     */
+    @Before
+    public void setUp()
+    {
+        final int[] offsets = { 0, 24, 48, 0 };
+        final int[] counts = { 10, 9, 7, 5 };
+        final int keyCount = 31;
+        mX = new int[keyCount];
+        mY = new int[keyCount];
+        mWidth = new int[keyCount];
+        mHeight = new int[keyCount];
+        mEdgeFlags = new int[keyCount];
+        mCodes = new int[keyCount][];
+        int k = 0;
+        int code = 'a';
+        for (int r = 0; r < counts.length; ++r)
+        {
+            for (int c = 0; c < counts[r]; ++c, ++k)
+            {
+                final boolean space = (r == 3) && (c == 2);
+                mWidth[k] = space ? 144 : 44;
+                mHeight[k] = 60;
+                mX[k] = offsets[r] + c * 48 + (((r == 3) && (c > 2)) ? 96 : 0);
+                mY[k] = r * 64;
+                mEdgeFlags[k] = ((c == 0) ? EDGE_LEFT : 0) |
+                    ((c == counts[r] - 1) ? EDGE_RIGHT : 0) |
+                    ((r == 0) ? EDGE_TOP : 0) |
+                    ((r == counts.length - 1) ? EDGE_BOTTOM : 0);
+                mCodes[k] = new int[] {
+                    space ? 32 : ((r == 3) && (c == 0)) ? -1 : code++
+                };
+            }
+        }
+        mGrid = new KeyGrid(mX, mY, mWidth, mHeight, mEdgeFlags, mCodes,
+                            WIDTH, HEIGHT, THRESHOLD);
+    }
+
+    private boolean isInside(int i, int x, int y)
+    {
+        final boolean leftEdge = (mEdgeFlags[i] & EDGE_LEFT) != 0;
+        final boolean rightEdge = (mEdgeFlags[i] & EDGE_RIGHT) != 0;
+        final boolean topEdge = (mEdgeFlags[i] & EDGE_TOP) != 0;
+        final boolean bottomEdge = (mEdgeFlags[i] & EDGE_BOTTOM) != 0;
+        return ((x >= mX[i]) || (leftEdge && (x <= mX[i] + mWidth[i]))) &&
+            ((x < mX[i] + mWidth[i]) || (rightEdge && (x >= mX[i]))) &&
+            ((y >= mY[i]) || (topEdge && (y <= mY[i] + mHeight[i]))) &&
+            ((y < mY[i] + mHeight[i]) || (bottomEdge && (y >= mY[i])));
+    }
+
+    /**
+     * The lookup getKeyIndices() did before the grid, with every key a
+     * candidate on the keyboard and none off it, as from getNearestKeys().
+     */
+    private int reference(int x, int y, boolean proximity)
+    {
+        if ((x < 0) || (y < 0) || (x >= WIDTH) || (y >= HEIGHT))
+        {
+            return NOT_A_KEY;
+        }
+        int closest = NOT_A_KEY;
+        int primary = NOT_A_KEY;
+        int closestDist = THRESHOLD + 1;
+        for (int i = 0; i < mX.length; ++i)
+        {
+            int dist = 0;
+            final boolean inside = isInside(i, x, y);
+            if (proximity)
+            {
+                final int dx = mX[i] + mWidth[i] / 2 - x;
+                final int dy = mY[i] + mHeight[i] / 2 - y;
+                dist = dx * dx + dy * dy;
+            }
+            if (((proximity && (dist < THRESHOLD)) || inside) &&
+                (mCodes[i][0] > 32) && (dist < closestDist))
+            {
+                closestDist = dist;
+                closest = i;
+            }
+            if (inside)
+            {
+                primary = i;
+            }
+        }
+        return (primary == NOT_A_KEY) ? closest : primary;
+    }
+
+    @Test
+    public void matchesReference()
+    {
+        final Random random = new Random(1);
+        for (int t = 0; t < 200000; ++t)
+        {
+            final int x = random.nextInt(WIDTH + 80) - 40;
+            final int y = random.nextInt(HEIGHT + 80) - 40;
+            final boolean proximity = random.nextBoolean();
+            assertEquals(x + "," + y + " proximity " + proximity,
+                         reference(x, y, proximity),
+                         mGrid.getKey(x, y, proximity));
+        }
+    }
+
+    @Test
+    public void offKeyboardIsNoKey()
+    {
+        final int[][] points = {
+            { -1, 30 }, { -40, 30 }, { WIDTH, 30 }, { WIDTH + 40, 30 },
+            { 20, -1 }, { 20, -40 }, { 20, HEIGHT }, { 20, HEIGHT + 40 },
+            { -1, -1 }, { WIDTH, HEIGHT }
+        };
+        for (int[] p : points)
+        {
+            assertEquals(NOT_A_KEY, mGrid.getKey(p[0], p[1], true));
+            assertEquals(NOT_A_KEY, mGrid.getKey(p[0], p[1], false));
+        }
+    }
+
+    @Test
+    public void edgeKeysReachTheKeyboardEdge()
+    {
+        // Past the last key of the top row but still on the keyboard
+        assertEquals(9, mGrid.getKey(WIDTH - 1, 10, false));
+        assertEquals(0, mGrid.getKey(0, 10, false));
+    }
+
+    @Test
+    public void emptyKeyboard()
+    {
+        final KeyGrid grid = new KeyGrid(new int[0], new int[0], new int[0],
+                                         new int[0], new int[0], new int[0][],
+                                         0, 0, 0);
+        assertEquals(NOT_A_KEY, grid.getKey(0, 0, true));
+    }
+}
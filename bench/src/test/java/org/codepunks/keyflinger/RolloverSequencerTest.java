@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class RolloverSequencerTest
+{
+    // A key whose gesture changes keyboards, and so cancels
+    private static final int SWITCH_KEY = 99;
+
+    private List<Integer> mSent;
+    private RolloverSequencer mRollover;
+
+    @Before
+    public void setUp()
+    {
+        mSent = new ArrayList<Integer>();
+        mRollover = new RolloverSequencer(new RolloverSequencer.Listener()
+            {
+                public boolean onGesture(int slot, int key, int direction)
+                {
+                    mSent.add(key);
+                    if (key == SWITCH_KEY)
+                    {
+                        mRollover.cancel();
+                    }
+                    return true;
+                }
+            });
+    }
+
+    @Test
+    public void secondFingerHeldUntilFirstFinishes()
+    {
+        mRollover.onDown(0);
+        mRollover.onDown(1);
+        mRollover.onGesture(1, 2, 0);
+        mRollover.onUp(1);
+        assertEquals("[]", mSent.toString());
+        mRollover.onGesture(0, 1, 0);
+        mRollover.onUp(0);
+        assertEquals("[1, 2]", mSent.toString());
+    }
+
+    @Test
+    public void cancelSendsFinishedGestures()
+    {
+        mRollover.onDown(0);
+        mRollover.onDown(1);
+        mRollover.onDown(2);
+        mRollover.onGesture(1, 2, 0);
+        mRollover.onUp(1);
+        mRollover.onGesture(2, 3, 0);
+        mRollover.cancel();
+        assertEquals("[2, 3]", mSent.toString());
+
+        // The pending finger was dropped and nothing is left held
+        mRollover.onGesture(0, 1, 0);
+        mRollover.onDown(0);
+        mRollover.onGesture(0, 4, 0);
+        mRollover.onUp(0);
+        assertEquals("[2, 3, 1, 4]", mSent.toString());
+    }
+
+    @Test
+    public void cancelFromListenerSendsTheRestOnce()
+    {
+        mRollover.onDown(0);
+        mRollover.onDown(1);
+        mRollover.onDown(2);
+        mRollover.onGesture(1, SWITCH_KEY, 0);
+        mRollover.onGesture(2, 5, 0);
+        mRollover.onGesture(0, 1, 0);
+        assertEquals("[1, " + SWITCH_KEY + ", 5]", mSent.toString());
+
+        mRollover.onDown(0);
+        mRollover.onGesture(0, 4, 0);
+        mRollover.onUp(0);
+        assertEquals("[1, " + SWITCH_KEY + ", 5, 4]", mSent.toString());
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class TouchJournalTest
+{
+    @Test
+    public void copyIsUntouchedByLaterRecords()
+    {
+        final TouchJournal journal = new TouchJournal(4);
+        for (int i = 0; i < 6; ++i)
+        {
+            journal.recordSample(i, i, -i, 100 + i);
+        }
+        final TouchJournal copy = journal.copy();
+        journal.recordAction(KeyFlingEngine.ACTION_UP, 9, 0, 0, 200);
+        journal.clear();
+
+        assertEquals(4, copy.size());
+        assertEquals(2, copy.getDropped());
+        for (int i = 0; i < 4; ++i)
+        {
+            assertEquals(TouchJournal.KIND_SAMPLE, copy.getKind(i));
+            assertEquals(i + 2, copy.getPointerId(i));
+            assertEquals(102 + i, copy.getTime(i));
+            assertEquals(i + 2, copy.getX(i), 0);
+            assertEquals(-i - 2, copy.getY(i), 0);
+        }
+    }
+
+    @Test
+    public void writeAndReadBack() throws IOException
+    {
+        final TouchJournal journal = new TouchJournal(3);
+        for (int i = 0; i < 5; ++i)
+        {
+            journal.recordAction(KeyFlingEngine.ACTION_MOVE, i, i, i, i);
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        journal.copy().writeTo(out);
+        final TouchJournal read = TouchJournal.readFrom(
+            new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(3, read.size());
+        for (int i = 0; i < 3; ++i)
+        {
+            assertEquals(KeyFlingEngine.ACTION_MOVE, read.getKind(i));
+            assertEquals(i + 2, read.getTime(i));
+        }
+    }
+}
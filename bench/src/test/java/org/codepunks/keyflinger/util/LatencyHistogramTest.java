@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    private final LatencyHistogram mHistogram = new LatencyHistogram();
+
+    private void record(long millis, int times) {
+        for (int i = 0; i < times; i++) {
+            mHistogram.record(millis);
+        }
+    }
+
+    @Test
+    public void empty() {
+        assertEquals(0, mHistogram.getPercentile(0.5));
+        assertEquals(0, mHistogram.getPercentile(0.99));
+    }
+
+    @Test
+    public void zeroMillis() {
+        record(0, 100);
+        assertEquals(0, mHistogram.getPercentile(0.5));
+        assertEquals(0, mHistogram.getPercentile(0.99));
+        assertEquals(0, mHistogram.getMax());
+    }
+
+    @Test
+    public void zeroMillisBelowSlowerOnes() {
+        record(0, 60);
+        record(5, 40);
+        assertEquals(0, mHistogram.getPercentile(0.5));
+        assertEquals(5, mHistogram.getPercentile(0.99));
+    }
+
+    @Test
+    public void lowerBoundOfWideBucket() {
+        record(9, 10);
+        assertEquals(8, mHistogram.getPercentile(0.5));
+        record(1000, 10);
+        assertEquals(8, mHistogram.getPercentile(0.5));
+        assertEquals(896, mHistogram.getPercentile(0.99));
+    }
+
+    @Test
+    public void overflowIsMax() {
+        record(1, 1);
+        record(5000, 1);
+        assertEquals(5000, mHistogram.getPercentile(0.99));
+        assertEquals(1, mHistogram.getPercentile(0.5));
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger;
+
+/**
+ * Groups the gestures of fingers that overlap in time into chords.
+ *
+ * A group starts when a finger goes down with no other finger down, and every
+ * finger that goes down before they are all up again joins it. When the last
+ * one lifts, the gestures of the group are looked up in the layout's
+ * {@link ChordTable}. A hit is reported as a single chord, otherwise each
+ * gesture is reported on its own in press order. A lone finger is reported as
+ * soon as it lifts, so single gestures cost nothing extra.
+ *
+ * Members are presses, not fingers: a finger that lifts and taps again while
+ * another holds the group joins it a second time, even though the detector
+ * hands the new press the same slot.
+ */
+public class ChordRecognizer
+{
+    public interface Listener
+    {
+        void onGesture(int key, int direction);
+        void onChord(int code);
+    }
+
+    private static final int NO_CODE = Integer.MIN_VALUE;
+
+    private final Listener mListener;
+    private ChordTable mTable;
+
+    // Members of the current group, one per press, in press order
+    private final int[] mSlots = new int[ChordTable.MAX_GESTURES];
+    private final int[] mKeys = new int[ChordTable.MAX_GESTURES];
+    private final int[] mDirections = new int[ChordTable.MAX_GESTURES];
+    private final boolean[] mHasGesture = new boolean[ChordTable.MAX_GESTURES];
+    private final boolean[] mStillDown = new boolean[ChordTable.MAX_GESTURES];
+    private final int[] mGestures = new int[ChordTable.MAX_GESTURES];
+    private int mMembers;
+    private int mDown;
+
+    public ChordRecognizer(Listener listener)
+    {
+        mListener = listener;
+    }
+
+    public void setTable(ChordTable table)
+    {
+        mTable = table;
+        cancel();
+    }
+
+    /**
+     * @return True if the current layout has any chords at all. If not
+     * there is no point in routing gestures through here.
+     */
+    public boolean isActive()
+    {
+        return (mTable != null) && !mTable.isEmpty();
+    }
+
+    public void onDown(int slot)
+    {
+        if (find(slot) >= 0)
+        {
+            // Never saw it lift
+            onUp(slot);
+        }
+        if (mMembers == ChordTable.MAX_GESTURES)
+        {
+            // Too many presses to chord
+            return;
+        }
+        final int m = mMembers++;
+        mSlots[m] = slot;
+        mHasGesture[m] = false;
+        mStillDown[m] = true;
+        ++mDown;
+    }
+
+    /**
+     * @param key The index of the key the press went down on. A press on no
+     * key, a negative index, has no gesture, and still holds the group open
+     * until it lifts.
+     */
+    public void onGesture(int slot, int key, int direction)
+    {
+        if (key < 0)
+        {
+            return;
+        }
+        final int m = find(slot);
+        if (m < 0)
+        {
+            mListener.onGesture(key, direction);
+            return;
+        }
+        mKeys[m] = key;
+        mDirections[m] = direction;
+        mHasGesture[m] = true;
+    }
+
+    public void onUp(int slot)
+    {
+        final int m = find(slot);
+        if (m < 0)
+        {
+            return;
+        }
+        mStillDown[m] = false;
+        if (--mDown == 0)
+        {
+            resolve();
+        }
+    }
+
+    public void cancel()
+    {
+        mMembers = 0;
+        mDown = 0;
+    }
+
+    /**
+     * @return The member for the press still down in the given slot, or -1.
+     * Earlier presses in the same slot have lifted and are left alone.
+     */
+    private int find(int slot)
+    {
+        for (int m = mMembers - 1; m >= 0; --m)
+        {
+            if ((mSlots[m] == slot) && mStillDown[m])
+            {
+                return m;
+            }
+        }
+        return -1;
+    }
+
+    private void resolve()
+    {
+        final int members = mMembers;
+        mMembers = 0;
+
+        int count = 0;
+        for (int m = 0; m < members; ++m)
+        {
+            if (mHasGesture[m])
+            {
+                mGestures[count++] = ChordTable.gesture(mKeys[m],
+                                                        mDirections[m]);
+            }
+        }
+
+        if ((count > 1) && (mTable != null))
+        {
+            int code = mTable.get(ChordTable.signature(mGestures, count),
+                                  NO_CODE);
+            if (code != NO_CODE)
+            {
+                mListener.onChord(code);
+                return;
+            }
+        }
+
+        for (int m = 0; m < members; ++m)
+        {
+            if (mHasGesture[m])
+            {
+                mListener.onGesture(mKeys[m], mDirections[m]);
+            }
+        }
+    }
+}
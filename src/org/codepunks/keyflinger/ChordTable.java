@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger;
+
+/**
+ * Chord signature to key code lookup, built once per keyboard layout.
+ *
+ * Each finger of a chord contributes one gesture, a key index plus the
+ * direction it was flung in (or {@link #DIRECTION_TAP}), packed into 16 bits.
+ * The gestures are sorted and packed into a long, so the signature does not
+ * depend on which finger went down first. Signatures are kept in an open
+ * addressing table, so a lookup is a hash and usually a single probe.
+ */
+public class ChordTable
+{
+    public static final int MAX_GESTURES = 4;
+    public static final int DIRECTION_TAP = -1;
+
+    // Largest key index a gesture has room for
+    public static final int MAX_KEY = (1 << (16 - 4)) - 2;
+
+    private static final int DIRECTION_BITS = 4;
+    private static final int GESTURE_BITS = 16;
+    private static final long EMPTY = 0;
+
+    private long[] mSignatures;
+    private int[] mCodes;
+    private int mSize;
+
+    public ChordTable()
+    {
+        this(8);
+    }
+
+    public ChordTable(int capacity)
+    {
+        int size = 8;
+        while (size < capacity * 2)
+        {
+            size <<= 1;
+        }
+        mSignatures = new long[size];
+        mCodes = new int[size];
+    }
+
+    /**
+     * Pack a key index and direction into a gesture. Never 0, and never
+     * negative, which would spill into the other gestures of a signature.
+     *
+     * @param key A key index, 0 to {@link #MAX_KEY}.
+     */
+    public static int gesture(int key, int direction)
+    {
+        if ((key < 0) || (key > MAX_KEY))
+        {
+            throw new IllegalArgumentException("Key index " + key +
+                                               " out of range");
+        }
+        return ((key + 1) << DIRECTION_BITS) | (direction + 1);
+    }
+
+    /**
+     * Build the signature of a set of gestures. The gestures array is sorted
+     * in place.
+     */
+    public static long signature(int[] gestures, int count)
+    {
+        // Insertion sort, there are never more than MAX_GESTURES
+        for (int i = 1; i < count; ++i)
+        {
+            final int g = gestures[i];
+            int j = i - 1;
+            while ((j >= 0) && (gestures[j] > g))
+            {
+                gestures[j + 1] = gestures[j];
+                --j;
+            }
+            gestures[j + 1] = g;
+        }
+
+        long signature = EMPTY;
+        for (int i = 0; i < count; ++i)
+        {
+            signature = (signature << GESTURE_BITS) | gestures[i];
+        }
+        return signature;
+    }
+
+    public void put(long signature, int code)
+    {
+        if ((mSize + 1) * 2 > mSignatures.length)
+        {
+            rehash(mSignatures.length * 2);
+        }
+        int i = find(mSignatures, signature);
+        if (mSignatures[i] == EMPTY)
+        {
+            mSignatures[i] = signature;
+            ++mSize;
+        }
+        mCodes[i] = code;
+    }
+
+    /**
+     * @return The code of the chord, or defaultCode if there is no such
+     * chord.
+     */
+    public int get(long signature, int defaultCode)
+    {
+        int i = find(mSignatures, signature);
+        if (mSignatures[i] == EMPTY)
+        {
+            return defaultCode;
+        }
+        return mCodes[i];
+    }
+
+    public int size()
+    {
+        return mSize;
+    }
+
+    public boolean isEmpty()
+    {
+        return mSize == 0;
+    }
+
+    private static int find(long[] signatures, long signature)
+    {
+        final int mask = signatures.length - 1;
+        long h = signature * 0x9E3779B97F4A7C15L;
+        int i = (int)(h ^ (h >>> 32)) & mask;
+        while ((signatures[i] != EMPTY) && (signatures[i] != signature))
+        {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void rehash(int size)
+    {
+        final long[] oldSignatures = mSignatures;
+        final int[] oldCodes = mCodes;
+        mSignatures = new long[size];
+        mCodes = new int[size];
+        for (int i = 0; i < oldSignatures.length; ++i)
+        {
+            if (oldSignatures[i] != EMPTY)
+            {
+                int j = find(mSignatures, oldSignatures[i]);
+                mSignatures[j] = oldSignatures[i];
+                mCodes[j] = oldCodes[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger;
+
+/**
+ * Maps the travel and velocity of a fling onto one of four or eight
+ * directions.
+ *
+ * Eight directions use only integer multiplies and comparisons. The sector
+ * boundaries sit at 22.5 and 67.5 degrees from the x axis, tested as ratios
+ * of |dy| to |dx| scaled by 256, so no atan2 is needed. Every sector has its
+ * own dead zone, the squared distance the finger must travel before the
+ * fling counts.
+ *
+ * Four directions keep the per-axis test keys had before there were
+ * diagonals: the faster axis of the lift velocity picks left and right or up
+ * and down, the travel along that axis alone must pass the dead zone, and
+ * down also needs the velocity to be twice as steep.
+ */
+public class FlingClassifier
+{
+    // Same values as the LatinKeyboard KEY_INDEX_* they are used as
+    static final public int NONE = -1;
+    static final public int UP = 0;
+    static final public int DOWN = 1;
+    static final public int LEFT = 2;
+    static final public int RIGHT = 3;
+    static final public int UP_LEFT = 4;
+    static final public int UP_RIGHT = 5;
+    static final public int DOWN_LEFT = 6;
+    static final public int DOWN_RIGHT = 7;
+    static final public int NUM_DIRECTIONS = 8;
+
+    // tan(22.5) and tan(67.5) scaled by 256
+    static final private int TAN_22_5 = 106;
+    static final private int TAN_67_5 = 618;
+    static final private int ONE = 256;
+
+    // Unit direction of each direction, screen y grows downwards
+    static final private int[] SIGN_X = { 0, 0, -1, 1, -1, 1, -1, 1 };
+    static final private int[] SIGN_Y = { -1, 1, 0, 0, -1, -1, 1, 1 };
+
+    private final int[] mDeadZone = new int[NUM_DIRECTIONS];
+    private final int[] mDeadZoneSquare = new int[NUM_DIRECTIONS];
+
+    public FlingClassifier(int travel)
+    {
+        setDeadZone(travel);
+    }
+
+    public void setDeadZone(int travel)
+    {
+        for (int i = 0; i < mDeadZoneSquare.length; ++i)
+        {
+            setDeadZone(i, travel);
+        }
+    }
+
+    public void setDeadZone(int direction, int travel)
+    {
+        mDeadZone[direction] = travel;
+        mDeadZoneSquare[direction] = travel * travel;
+    }
+
+    /**
+     * @param diagonals Use all eight directions if true, only the four
+     * straight ones otherwise.
+     * @return A direction, or {@link #NONE} if the stroke was too short or,
+     * with diagonals, the finger was moving back against its travel when it
+     * lifted.
+     */
+    public int classify(float deltaX, float deltaY, float velocityX,
+                        float velocityY, boolean diagonals)
+    {
+        if (!diagonals)
+        {
+            return classifyStraight(deltaX, deltaY, velocityX, velocityY);
+        }
+
+        final int dx = (int)deltaX;
+        final int dy = (int)deltaY;
+        final int ax = dx < 0 ? -dx : dx;
+        final int ay = dy < 0 ? -dy : dy;
+
+        int direction;
+        if ((ay * ONE > ax * TAN_22_5) && (ay * ONE < ax * TAN_67_5))
+        {
+            if (dy < 0)
+            {
+                direction = dx < 0 ? UP_LEFT : UP_RIGHT;
+            }
+            else
+            {
+                direction = dx < 0 ? DOWN_LEFT : DOWN_RIGHT;
+            }
+        }
+        else if (ax > ay)
+        {
+            direction = dx < 0 ? LEFT : RIGHT;
+        }
+        else
+        {
+            direction = dy < 0 ? UP : DOWN;
+        }
+
+        if (dx * dx + dy * dy < mDeadZoneSquare[direction])
+        {
+            return NONE;
+        }
+        if (SIGN_X[direction] * (int)velocityX +
+            SIGN_Y[direction] * (int)velocityY < 0)
+        {
+            return NONE;
+        }
+        return direction;
+    }
+
+    private int classifyStraight(float deltaX, float deltaY, float velocityX,
+                                 float velocityY)
+    {
+        final float absX = Math.abs(velocityX);
+        final float absY = Math.abs(velocityY);
+        if (absY < absX)
+        {
+            if (deltaX > mDeadZone[RIGHT])
+            {
+                return RIGHT;
+            }
+            if (deltaX < -mDeadZone[LEFT])
+            {
+                return LEFT;
+            }
+        }
+        else if (absX < absY)
+        {
+            if (deltaY < -mDeadZone[UP])
+            {
+                return UP;
+            }
+            if ((absX < absY / 2) && (deltaY > mDeadZone[DOWN]))
+            {
+                return DOWN;
+            }
+        }
+        return NONE;
+    }
+}
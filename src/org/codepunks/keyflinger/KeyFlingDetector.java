@@ -31,10 +31,9 @@
 
 package org.codepunks.keyflinger;
 
-import org.codepunks.keyflinger.util.VelocityTracker;
-
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.content.Context;
 import android.util.Log;
 import android.view.MotionEvent;
@@ -51,17 +50,27 @@ public class KeyFlingDetector
         public static final int ACTION_FLING = 2;
 
         public int action;
-        public MotionEvent down;
-        public MotionEvent up;
+        public int pointerId;
+        public float downX;
+        public float downY;
+        public long downTime;
+        public float upX;
+        public float upY;
+        public long upTime;
         public float velocityX;
         public float velocityY;
 
-        public void set(int action, MotionEvent down, MotionEvent up,
-                        float velocityX, float velocityY)
+        public void set(int action, FlingState fling, float velocityX,
+                        float velocityY)
         {
             this.action = action;
-            this.down = down;
-            this.up = up;
+            this.pointerId = fling.mPointerId;
+            this.downX = fling.mDownX;
+            this.downY = fling.mDownY;
+            this.downTime = fling.mDownTime;
+            this.upX = fling.mUpX;
+            this.upY = fling.mUpY;
+            this.upTime = fling.mUpTime;
             this.velocityX = velocityX;
             this.velocityY = velocityY;
         }
@@ -69,141 +78,195 @@ public class KeyFlingDetector
         public void clear()
         {
             this.action = ACTION_NONE;
-            this.down = null;
-            this.up = null;
+            this.pointerId = 0;
+            this.downX = 0;
+            this.downY = 0;
+            this.downTime = 0;
+            this.upX = 0;
+            this.upY = 0;
+            this.upTime = 0;
             this.velocityX = 0;
             this.velocityY = 0;
         }
 
         public boolean empty()
         {
-            if (down == null)
+            if (action != ACTION_FLING)
                 return false;
             return true;
         }
     }
 
+    /**
+     * Where a pointer went down and last came up, or where it was when an
+     * early fling was committed. One is preallocated per
+     * pointer slot and overwritten in place, so nothing is copied per event.
+     */
     public class FlingState
     {
-        private MotionEvent mCurrentDownEvent;
-        private MotionEvent mPreviousUpEvent;
-        private float mLastMotionY;
-        private float mLastMotionX;
-        private boolean mStillDown;
-        private boolean mInLongPress;
-        private boolean mAlwaysInTapRegion;
-        private boolean mAlwaysInBiggerTapRegion;
-        // True when the user is still touching for the second tap (down, move,
-        // and up events). Can only be true if there is a double tap listener
-        // attached.
-        private boolean mIsDoubleTapping;
+        private int mPointerId;
+        private float mDownX;
+        private float mDownY;
+        private long mDownTime;
+        private float mUpX;
+        private float mUpY;
+        private long mUpTime;
+
+        public int getPointerId()
+        {
+            return mPointerId;
+        }
+
+        public float getDownX()
+        {
+            return mDownX;
+        }
+
+        public float getDownY()
+        {
+            return mDownY;
+        }
+
+        public long getDownTime()
+        {
+            return mDownTime;
+        }
+
+        public float getUpX()
+        {
+            return mUpX;
+        }
+
+        public float getUpY()
+        {
+            return mUpY;
+        }
+
+        public long getUpTime()
+        {
+            return mUpTime;
+        }
+
+        private void setDown(int pid, float x, float y, long time)
+        {
+            mPointerId = pid;
+            mDownX = x;
+            mDownY = y;
+            mDownTime = time;
+        }
+
+        private void setUp(float x, float y, long time)
+        {
+            mUpX = x;
+            mUpY = y;
+            mUpTime = time;
+        }
     }
     
     public interface OnGestureListener
     {
-        boolean onDown(MotionEvent e, int idx, int pid);
-        void onShowPress(MotionEvent e, int idx, int pid);
-        boolean onSingleTapUp(MotionEvent e, int idx, int pid);
-        boolean onRepeat(MotionEvent e, int idx, int pid);
-        boolean onScroll(MotionEvent e1, MotionEvent e2, int idx, int pid,
+        boolean onDown(MotionEvent e, int slot, int pid);
+        void onShowPress(FlingState s, int slot, int pid);
+        boolean onSingleTapUp(MotionEvent e, int slot, int pid);
+        boolean onRepeat(FlingState s, int slot, int pid);
+        boolean onScroll(FlingState s, MotionEvent e2, int slot, int pid,
                          float distanceX, float distanceY);
-        void onLongPress(MotionEvent e, int idx, int pid);
-        boolean onFling(FlingEvent[] e, int idx, int pid);
+        void onLongPress(FlingState s, int slot, int pid);
+        boolean onFling(FlingEvent[] e, int slot, int pid);
+        void onUp(MotionEvent e, int slot, int pid);
     }
 
     public interface OnDoubleTapListener
     {
-        boolean onSingleTapConfirmed(MotionEvent e, int idx, int pid);
-        boolean onDoubleTap(MotionEvent e, int idx, int pid);
-        boolean onDoubleTapEvent(MotionEvent e, int idx, int pid);
+        boolean onSingleTapConfirmed(FlingState s, int slot, int pid);
+        boolean onDoubleTap(FlingState s, int slot, int pid);
+        boolean onDoubleTapEvent(MotionEvent e, int slot, int pid);
     }
 
     public static class FlingListener
         implements OnGestureListener, OnDoubleTapListener
     {
-        public boolean onSingleTapUp(MotionEvent e, int idx, int pid)
+        public boolean onSingleTapUp(MotionEvent e, int slot, int pid)
         {
             return false;
         }
 
-        public boolean onRepeat(MotionEvent e, int idx, int pid)
+        public boolean onRepeat(FlingState s, int slot, int pid)
         {
             return false;
         }
 
-        public void onLongPress(MotionEvent e, int idx, int pid)
+        public void onLongPress(FlingState s, int slot, int pid)
         {
         }
 
-        public boolean onScroll(MotionEvent e1, MotionEvent e2, int idx, int pid,
+        public boolean onScroll(FlingState s, MotionEvent e2, int slot, int pid,
                                 float distanceX, float distanceY)
         {
             return false;
         }
 
-        public boolean onFling(FlingEvent[] e, int idx, int pid)
+        public boolean onFling(FlingEvent[] e, int slot, int pid)
         {
             return false;
         }
 
-        public void onShowPress(MotionEvent e, int idx, int pid)
+        public void onUp(MotionEvent e, int slot, int pid)
+        {
+        }
+
+        public void onShowPress(FlingState s, int slot, int pid)
         {
         }
 
-        public boolean onDown(MotionEvent e, int idx, int pid)
+        public boolean onDown(MotionEvent e, int slot, int pid)
         {
             return false;
         }
 
-        public boolean onDoubleTap(MotionEvent e, int idx, int pid)
+        public boolean onDoubleTap(FlingState s, int slot, int pid)
         {
             return false;
         }
 
-        public boolean onDoubleTapEvent(MotionEvent e, int idx, int pid)
+        public boolean onDoubleTapEvent(MotionEvent e, int slot, int pid)
         {
             return false;
         }
 
-        public boolean onSingleTapConfirmed(MotionEvent e, int idx, int pid)
+        public boolean onSingleTapConfirmed(FlingState s, int slot, int pid)
         {
             return false;
         }
     }
 
-    private static final int LONGPRESS_TIMEOUT =
-        ViewConfiguration.getLongPressTimeout();
-    private static final int TAP_TIMEOUT = ViewConfiguration.getTapTimeout();
-    private static final int DOUBLE_TAP_TIMEOUT =
-        ViewConfiguration.getDoubleTapTimeout();
-    private static final int INITIAL_REPEAT_TIMEOUT = LONGPRESS_TIMEOUT / 2;
-    private static final int REPEAT_TIMEOUT = INITIAL_REPEAT_TIMEOUT / 2;
-
-    // constants for Message.what used by GestureHandler below
-    private static final int SHOW_PRESS = 1;
-    private static final int LONG_PRESS = 2;
-    private static final int TAP = 3;
-    private static final int REPEAT = 4;
-
-    private final Handler mHandler;
+    // The only message GestureHandler posts, the engine's next deadline
+    private static final int WAKEUP = 1;
+
+    private final GestureHandler mHandler;
     private final OnGestureListener mListener;
     private OnDoubleTapListener mDoubleTapListener;
+    private final KeyFlingEngine mEngine;
+
+    // Indexed by the engine's pointer slot, grown along with it
+    private FlingState[] mFlings = new FlingState[0];
+    private FlingEvent[] mFlingEvents = new FlingEvent[0];
 
-    private int mBiggerTouchSlopSquare = 20 * 20;
-    private int mTouchSlopSquare;
-    private int mDoubleTapSlopSquare;
-    private int mMinimumFlingVelocity;
-    private int mMaximumFlingVelocity;
-    private boolean mIsLongpressEnabled;
-    private int mNumFlings = 2;
+    // The event being handed to the engine, for the listener callbacks
+    private MotionEvent mCurrentEvent;
 
-    private FlingState[] mFlings;
-    private FlingEvent[] mFlingEvents;
+    // Where to record the engine's input, if anywhere
+    private TouchJournal mJournal;
 
-    private VelocityTracker mVelocityTracker;
+    // Time of the event or timer whose callbacks are being made
+    private long mDispatchTime;
 
     private class GestureHandler extends Handler
+        implements KeyFlingEngine.Scheduler
     {
+        // The deadline of the posted WAKEUP, if any
+        private long mWakeAt = KeyFlingEngine.NO_DEADLINE;
+
         GestureHandler()
         {
             super();
@@ -214,45 +277,118 @@ public class KeyFlingDetector
             super(handler.getLooper());
         }
         
+        public void wakeAt(long when)
+        {
+            // An earlier wakeup finds nothing due and asks again
+            if (when >= mWakeAt)
+            {
+                return;
+            }
+            if (mWakeAt != KeyFlingEngine.NO_DEADLINE)
+            {
+                removeMessages(WAKEUP);
+            }
+            mWakeAt = when;
+            sendEmptyMessageAtTime(WAKEUP, when);
+        }
+
         @Override public void handleMessage(Message msg)
         {
-            int idx = msg.arg1;
-            int pid = msg.arg2;
-            FlingState fling = (FlingState)msg.obj;
+            mDispatchTime = mWakeAt;
+            mWakeAt = KeyFlingEngine.NO_DEADLINE;
+            mEngine.onTimer(SystemClock.uptimeMillis());
+        }
+    }
 
-            Log.d(TAG, String.format("handleMessage: msg=%d idx=%d pid=%d",
-                                     msg.what, idx, pid));
-            switch (msg.what)
+    private class EngineListener implements KeyFlingEngine.Listener
+    {
+        public boolean onDown(int slot, int pid)
+        {
+            final int idx = mCurrentEvent.findPointerIndex(pid);
+            mFlings[slot].setDown(pid, mCurrentEvent.getX(idx),
+                                  mCurrentEvent.getY(idx),
+                                  mCurrentEvent.getEventTime());
+            return mListener.onDown(mCurrentEvent, slot, pid);
+        }
+
+        public void onShowPress(int slot, int pid)
+        {
+            mListener.onShowPress(mFlings[slot], slot, pid);
+        }
+
+        public boolean onSingleTapUp(int slot, int pid)
+        {
+            return mListener.onSingleTapUp(mCurrentEvent, slot, pid);
+        }
+
+        public boolean onRepeat(int slot, int pid)
+        {
+            return mListener.onRepeat(mFlings[slot], slot, pid);
+        }
+
+        public boolean onScroll(int slot, int pid, float distanceX,
+                                float distanceY)
+        {
+            return mListener.onScroll(mFlings[slot], mCurrentEvent, slot, pid,
+                                      distanceX, distanceY);
+        }
+
+        public void onLongPress(int slot, int pid)
+        {
+            Log.d(TAG, "dispatchLongPress");
+            mListener.onLongPress(mFlings[slot], slot, pid);
+        }
+
+        public boolean onFling(int slot, int pid, float velocityX,
+                               float velocityY)
+        {
+            if ((mCurrentEvent.getAction() & MotionEvent.ACTION_MASK) ==
+                MotionEvent.ACTION_MOVE)
             {
-            case SHOW_PRESS:
-                mListener.onShowPress(fling.mCurrentDownEvent, idx, pid);
-                break;
-            case LONG_PRESS:
-                if (mIsLongpressEnabled)
-                {
-                    dispatchLongPress(fling, idx, pid);
-                }
-                break;
-            case TAP:
-                // If the user's finger is still down, do not count it as a tap
-                if (mDoubleTapListener != null && !fling.mStillDown)
-                {
-                    mDoubleTapListener.onSingleTapConfirmed(
-                        fling.mCurrentDownEvent, idx, pid);
-                }
-                break;
-            case REPEAT:
-                if (fling.mAlwaysInTapRegion)
-                {
-                    mListener.onRepeat(fling.mCurrentDownEvent, idx, pid);
-                    mHandler.sendMessageDelayed(
-                        Message.obtain(msg.getTarget(), REPEAT, idx, pid, fling),
-                        REPEAT_TIMEOUT);
-                }
-                break;
-            default:
-                throw new RuntimeException("Unknown message " + msg); //never
+                // Early fling, the pointer is still down
+                final int idx = mCurrentEvent.findPointerIndex(pid);
+                mFlings[slot].setUp(mCurrentEvent.getX(idx),
+                                    mCurrentEvent.getY(idx),
+                                    mCurrentEvent.getEventTime());
+            }
+            FlingEvent fe = mFlingEvents[slot];
+            fe.set(FlingEvent.ACTION_FLING, mFlings[slot], velocityX, velocityY);
+            boolean handled = mListener.onFling(mFlingEvents, slot, pid);
+            fe.clear();
+            return handled;
+        }
+
+        public boolean onSingleTapConfirmed(int slot, int pid)
+        {
+            if (mDoubleTapListener == null)
+            {
+                return false;
+            }
+            return mDoubleTapListener.onSingleTapConfirmed(mFlings[slot], slot,
+                                                           pid);
+        }
+
+        public boolean onDoubleTap(int slot, int pid)
+        {
+            if (mDoubleTapListener == null)
+            {
+                return false;
             }
+            return mDoubleTapListener.onDoubleTap(mFlings[slot], slot, pid);
+        }
+
+        public boolean onDoubleTapEvent(int slot, int pid)
+        {
+            if (mDoubleTapListener == null)
+            {
+                return false;
+            }
+            return mDoubleTapListener.onDoubleTapEvent(mCurrentEvent, slot, pid);
+        }
+
+        public void onUp(int slot, int pid)
+        {
+            mListener.onUp(mCurrentEvent, slot, pid);
         }
     }
 
@@ -281,6 +417,7 @@ public class KeyFlingDetector
             mHandler = new GestureHandler();
         }
         mListener = listener;
+        mEngine = new KeyFlingEngine(new EngineListener(), mHandler);
         if (listener instanceof OnDoubleTapListener) {
             setOnDoubleTapListener((OnDoubleTapListener) listener);
         }
@@ -295,296 +432,211 @@ public class KeyFlingDetector
         if (context == null) {
             throw new NullPointerException("Context must not be null");
         }
-        mIsLongpressEnabled = true;
+        mEngine.setIsLongpressEnabled(true);
+        mEngine.setTimeouts(ViewConfiguration.getLongPressTimeout(),
+                            ViewConfiguration.getTapTimeout(),
+                            ViewConfiguration.getDoubleTapTimeout());
 
-        int touchSlop = 10;
-        int doubleTapSlop = 10;
         final ViewConfiguration configuration = ViewConfiguration.get(context);
-        touchSlop = configuration.getScaledTouchSlop();
-        doubleTapSlop = configuration.getScaledDoubleTapSlop();
-        mMinimumFlingVelocity = configuration.getScaledMinimumFlingVelocity();
-        mMinimumFlingVelocity = 5;
-        mMaximumFlingVelocity = configuration.getScaledMaximumFlingVelocity();
-        mTouchSlopSquare = touchSlop * touchSlop;
-        mTouchSlopSquare = 20;
-        mDoubleTapSlopSquare = doubleTapSlop * doubleTapSlop;
-
-        mFlings = new FlingState[mNumFlings];
-        mFlingEvents = new FlingEvent[mNumFlings];
-        for (int i = 0; i < mNumFlings; ++i)
-        {
-            mFlings[i] = new FlingState();
-            mFlingEvents[i] = new FlingEvent();
+        int doubleTapSlop = configuration.getScaledDoubleTapSlop();
+        mEngine.setDoubleTapSlopSquare(doubleTapSlop * doubleTapSlop);
+        mEngine.setMaximumFlingVelocity(
+            configuration.getScaledMaximumFlingVelocity());
+
+        ensureFlingCapacity();
+    }
+
+    private void ensureFlingCapacity()
+    {
+        final int capacity = mEngine.getSlotCapacity();
+        final int old = mFlings.length;
+        if (capacity <= old)
+        {
+            return;
+        }
+
+        FlingState[] flings = new FlingState[capacity];
+        FlingEvent[] flingEvents = new FlingEvent[capacity];
+        System.arraycopy(mFlings, 0, flings, 0, old);
+        System.arraycopy(mFlingEvents, 0, flingEvents, 0, old);
+        for (int i = old; i < capacity; ++i)
+        {
+            flings[i] = new FlingState();
+            flingEvents[i] = new FlingEvent();
         }
+        mFlings = flings;
+        mFlingEvents = flingEvents;
     }
 
     public void setParams(int touchSlop, int doubleTapSlop, int minFlingVelocity,
                           boolean longPressEnabled)
     {
-        mTouchSlopSquare = touchSlop;
-        mDoubleTapSlopSquare = doubleTapSlop;
-        mMinimumFlingVelocity = minFlingVelocity;
-        mIsLongpressEnabled = longPressEnabled;
+        mEngine.setParams(touchSlop, doubleTapSlop, minFlingVelocity,
+                          longPressEnabled);
     }
     
+    /**
+     * @return From within a listener callback, the time of the touch event
+     * behind it, or the time a timer was due for the timed callbacks.
+     */
+    public long getDispatchTime()
+    {
+        return mDispatchTime;
+    }
+
+    public void setVelocityEstimator(int estimator)
+    {
+        mEngine.setVelocityEstimator(estimator);
+    }
+
+    public void setVelocityHistory(int depth)
+    {
+        mEngine.setVelocityHistory(depth);
+    }
+
+    /**
+     * @return The slot the given pointer id will be reported in, so state
+     * for a new pointer can be set up before its event is handed in.
+     */
+    public int acquireSlot(int pid)
+    {
+        return mEngine.acquireSlot(pid);
+    }
+
+    /**
+     * @return The number of pointer slots, every slot handed to the
+     * listener is below this.
+     */
+    public int getSlotCapacity()
+    {
+        return mEngine.getSlotCapacity();
+    }
+
+    public void setEarlyFling(boolean enabled)
+    {
+        mEngine.setEarlyFling(enabled,
+                              KeyFlingEngine.DEFAULT_EARLY_FLING_DISTANCE,
+                              KeyFlingEngine.DEFAULT_EARLY_FLING_VELOCITY);
+    }
+
+    /**
+     * Record everything fed to the engine into the given journal, or stop
+     * recording with null.
+     */
+    public void setTouchJournal(TouchJournal journal)
+    {
+        mJournal = journal;
+    }
+
     public void setOnDoubleTapListener(OnDoubleTapListener onDoubleTapListener)
     {
         mDoubleTapListener = onDoubleTapListener;
+        mEngine.setDoubleTapEnabled(onDoubleTapListener != null);
     }
 
     public void setIsLongpressEnabled(boolean isLongpressEnabled)
     {
-        mIsLongpressEnabled = isLongpressEnabled;
+        mEngine.setIsLongpressEnabled(isLongpressEnabled);
     }
 
     public boolean isLongpressEnabled()
     {
-        return mIsLongpressEnabled;
+        return mEngine.isLongpressEnabled();
     }
 
     public boolean onTouchEvent(MotionEvent ev)
     {
-        if (mVelocityTracker == null)
-        {
-            mVelocityTracker = VelocityTracker.obtain();
-        }
-        mVelocityTracker.addMovement(ev);
+        // Gives any new pointer its slot
+        addMovement(ev);
+        ensureFlingCapacity();
 
         boolean handled = false;
-        int action = ev.getAction();
-        int code = action & MotionEvent.ACTION_MASK;
-        int idx = action >> MotionEvent.ACTION_POINTER_ID_SHIFT;
-        int pid = ev.getPointerId(idx);
+        final int action = ev.getAction();
+        final int code = action & MotionEvent.ACTION_MASK;
+        final int idx = action >> MotionEvent.ACTION_POINTER_ID_SHIFT;
+        final int pid = ev.getPointerId(idx);
+        final int slot = mEngine.getSlot(pid);
+        final long time = ev.getEventTime();
+
+        if (mFlingEvents[slot].action == FlingEvent.ACTION_NONE)
+        {
+            mFlingEvents[slot].action = FlingEvent.ACTION_STARTED;
+        }
 
-        if ((action == MotionEvent.ACTION_DOWN) ||
-            (action == MotionEvent.ACTION_UP) ||
-            (code == MotionEvent.ACTION_POINTER_DOWN) ||
+        if ((code == MotionEvent.ACTION_UP) ||
             (code == MotionEvent.ACTION_POINTER_UP))
-
         {
-            handled = processEvent(mFlings[idx], ev, action, code, idx, pid);
+            mFlings[slot].setUp(ev.getX(idx), ev.getY(idx), time);
         }
-        else if (action == MotionEvent.ACTION_MOVE)
+
+        mCurrentEvent = ev;
+        mDispatchTime = time;
+        if ((code == MotionEvent.ACTION_DOWN) ||
+            (code == MotionEvent.ACTION_UP) ||
+            (code == MotionEvent.ACTION_POINTER_DOWN) ||
+            (code == MotionEvent.ACTION_POINTER_UP) ||
+            (code == MotionEvent.ACTION_CANCEL))
         {
-            for (int i = 0; i < ev.getPointerCount(); ++i)
+            if (mJournal != null)
             {
-                handled |= processEvent(mFlings[i], ev, action, code, i, pid);
+                mJournal.recordAction(code, pid, ev.getX(idx), ev.getY(idx),
+                                      time);
             }
+            handled = mEngine.onTouchEvent(code, pid, ev.getX(idx),
+                                           ev.getY(idx), time);
         }
-
-        return handled;
-    }
-
-    public boolean processEvent(FlingState fling, MotionEvent ev, int action,
-                                int code, int idx, int pid)
-    {
-        boolean handled = false;
-        final float y = ev.getY(idx);
-        final float x = ev.getX(idx);
-
-        if (mFlingEvents[pid].action == FlingEvent.ACTION_NONE)
+        else if (code == MotionEvent.ACTION_MOVE)
         {
-            mFlingEvents[pid].action = FlingEvent.ACTION_STARTED;
-        }
-        
-        if ((action == MotionEvent.ACTION_DOWN) ||
-            (code == MotionEvent.ACTION_POINTER_DOWN))
-        {
-            if (mDoubleTapListener != null)
+            for (int i = 0; i < ev.getPointerCount(); ++i)
             {
-                boolean hadTapMessage = mHandler.hasMessages(TAP);
-                if (hadTapMessage)
-                {
-                    mHandler.removeMessages(TAP);
-                    mHandler.removeMessages(REPEAT);
-                }
-                if ((fling.mCurrentDownEvent != null) &&
-                    (fling.mPreviousUpEvent != null) &&
-                    hadTapMessage &&
-                    isConsideredDoubleTap(fling, ev, idx, pid))
-                {
-                    // This is a second tap
-                    fling.mIsDoubleTapping = true;
-                    // Give a callback with the first tap of the double-tap
-                    handled |=
-                        mDoubleTapListener.onDoubleTap(fling.mCurrentDownEvent,
-                                                       idx, pid);
-                    // Give a callback with down event of the double-tap
-                    handled |= mDoubleTapListener.onDoubleTapEvent(ev, idx, pid);
-                }
-                else
+                if (mJournal != null)
                 {
-                    // This is a first tap
-                    mHandler.sendMessageDelayed(
-                        Message.obtain(mHandler, TAP, idx, pid, fling),
-                        DOUBLE_TAP_TIMEOUT);
-                    mHandler.sendMessageDelayed(
-                        Message.obtain(mHandler, REPEAT, idx, pid, fling),
-                        INITIAL_REPEAT_TIMEOUT);
+                    mJournal.recordAction(code, ev.getPointerId(i), ev.getX(i),
+                                          ev.getY(i), time);
                 }
+                handled |= mEngine.onTouchEvent(code, ev.getPointerId(i),
+                                                ev.getX(i), ev.getY(i), time);
             }
-
-            fling.mLastMotionX = x;
-            fling.mLastMotionY = y;
-            fling.mCurrentDownEvent = MotionEvent.obtain(ev);
-            fling.mAlwaysInTapRegion = true;
-            fling.mAlwaysInBiggerTapRegion = true;
-            fling.mStillDown = true;
-            fling.mInLongPress = false;
-
-            if (mIsLongpressEnabled)
-            {
-                mHandler.removeMessages(LONG_PRESS);
-                mHandler.sendMessageAtTime(
-                    Message.obtain(mHandler, LONG_PRESS, idx, pid, fling),
-                    fling.mCurrentDownEvent.getDownTime() + TAP_TIMEOUT +
-                    LONGPRESS_TIMEOUT);
-            }
-            mHandler.sendMessageAtTime(
-                Message.obtain(mHandler, SHOW_PRESS, idx, pid, fling),
-                fling.mCurrentDownEvent.getDownTime() + TAP_TIMEOUT);
-            handled |= mListener.onDown(ev, idx, pid);
         }
-        else if ((action == MotionEvent.ACTION_MOVE) && !fling.mInLongPress)
+        mCurrentEvent = null;
+
+        if ((code == MotionEvent.ACTION_UP) ||
+            (code == MotionEvent.ACTION_CANCEL))
         {
-            final float scrollX = fling.mLastMotionX - x;
-            final float scrollY = fling.mLastMotionY - y;
-            if (fling.mIsDoubleTapping)
+            for (int i = 0; i < mFlingEvents.length; ++i)
             {
-                // Give the move events of the double-tap
-                handled |= mDoubleTapListener.onDoubleTapEvent(ev, idx, pid);
-            }
-            else if (fling.mAlwaysInTapRegion)
-            {
-                final int deltaX = (int) (x - fling.mCurrentDownEvent.getX());
-                final int deltaY = (int) (y - fling.mCurrentDownEvent.getY());
-                int distance = (deltaX * deltaX) + (deltaY * deltaY);
-                if (distance > mTouchSlopSquare)
-                {
-                    handled = mListener.onScroll(fling.mCurrentDownEvent, ev,
-                                                 idx, pid, scrollX, scrollY);
-                    fling.mLastMotionX = x;
-                    fling.mLastMotionY = y;
-                    fling.mAlwaysInTapRegion = false;
-                    mHandler.removeMessages(TAP);
-                    mHandler.removeMessages(REPEAT);
-                    mHandler.removeMessages(SHOW_PRESS);
-                    mHandler.removeMessages(LONG_PRESS);
-                }
-                if (distance > mBiggerTouchSlopSquare)
-                {
-                    fling.mAlwaysInBiggerTapRegion = false;
-                }
-            }
-            else if ((Math.abs(scrollX) >= 1) || (Math.abs(scrollY) >= 1))
-            {
-                handled = mListener.onScroll(fling.mCurrentDownEvent, ev, idx,
-                                             pid, scrollX, scrollY);
-                fling.mLastMotionX = x;
-                fling.mLastMotionY = y;
+                mFlingEvents[i].clear();
             }
         }
-        else if ((action == MotionEvent.ACTION_UP) ||
-                 (code == MotionEvent.ACTION_POINTER_UP))
+
+        return handled;
+    }
+
+    private void addMovement(MotionEvent ev)
+    {
+        final long time = ev.getEventTime();
+        final int historySize = ev.getHistorySize();
+        final int pointerCount = ev.getPointerCount();
+        for (int p = 0; p < pointerCount; p++)
         {
-            fling.mStillDown = false;
-            MotionEvent currentUpEvent = MotionEvent.obtain(ev);
-            if (fling.mIsDoubleTapping)
-            {
-                // Finally, give the up event of the double-tap
-                handled |= mDoubleTapListener.onDoubleTapEvent(ev, idx, pid);
-            }
-            else if (fling.mInLongPress)
+            final int pid = ev.getPointerId(p);
+            for (int h = 0; h < historySize; h++)
             {
-                mHandler.removeMessages(TAP);
-                mHandler.removeMessages(REPEAT);
-                fling.mInLongPress = false;
-            }
-            else if (fling.mAlwaysInTapRegion)
-            {
-                handled = mListener.onSingleTapUp(ev, idx, pid);
-            }
-            else
-            {
-                // A fling must travel the minimum tap distance
-                final VelocityTracker velocityTracker = mVelocityTracker;
-                velocityTracker.computeCurrentVelocity(1000,
-                                                       mMaximumFlingVelocity);
-                final float velocityY = velocityTracker.getYVelocity(pid);
-                final float velocityX = velocityTracker.getXVelocity(pid);
-
-                if ((Math.abs(velocityY) > mMinimumFlingVelocity) ||
-                    (Math.abs(velocityX) > mMinimumFlingVelocity))
+                if (mJournal != null)
                 {
-                    FlingEvent fe = mFlingEvents[pid];
-                    fe.set(FlingEvent.ACTION_FLING, fling.mCurrentDownEvent,
-                           currentUpEvent, velocityX, velocityY);
-                    handled = mListener.onFling(mFlingEvents, idx, pid);
-                    fe.clear();
+                    mJournal.recordSample(pid, ev.getHistoricalX(p, h),
+                                          ev.getHistoricalY(p, h),
+                                          ev.getHistoricalEventTime(h));
                 }
+                mEngine.addMovement(pid, ev.getHistoricalX(p, h),
+                                    ev.getHistoricalY(p, h),
+                                    ev.getHistoricalEventTime(h));
             }
-            fling.mPreviousUpEvent = MotionEvent.obtain(ev);
-            if (action == MotionEvent.ACTION_UP)
-            {
-                mVelocityTracker.recycle();
-                mVelocityTracker = null;
-                fling.mIsDoubleTapping = false;
-                mHandler.removeMessages(TAP);
-                mHandler.removeMessages(REPEAT);
-                mHandler.removeMessages(SHOW_PRESS);
-                mHandler.removeMessages(LONG_PRESS);
-                mFlingEvents[0].clear();
-                mFlingEvents[1].clear();
-            }
-        }
-        else if (action == MotionEvent.ACTION_CANCEL)
-        {
-            mHandler.removeMessages(SHOW_PRESS);
-            mHandler.removeMessages(LONG_PRESS);
-            mHandler.removeMessages(TAP);
-            mHandler.removeMessages(REPEAT);
-            mVelocityTracker.recycle();
-            mVelocityTracker = null;
-            fling.mIsDoubleTapping = false;
-            fling.mStillDown = false;
-            mFlingEvents[0].clear();
-            mFlingEvents[1].clear();
-            if (fling.mInLongPress)
+            if (mJournal != null)
             {
-                fling.mInLongPress = false;
+                mJournal.recordSample(pid, ev.getX(p), ev.getY(p), time);
             }
+            mEngine.addMovement(pid, ev.getX(p), ev.getY(p), time);
         }
-        
-        return handled;
-    }
-
-    private boolean isConsideredDoubleTap(FlingState fling,
-                                          MotionEvent secondDown,
-                                          int idx, int pid)
-    {
-        if (!fling.mAlwaysInBiggerTapRegion)
-        {
-            return false;
-        }
-
-        if ((secondDown.getEventTime() -
-             fling.mPreviousUpEvent.getEventTime()) > DOUBLE_TAP_TIMEOUT)
-        {
-            return false;
-        }
-
-        int deltaX = (int)(fling.mCurrentDownEvent.getX(idx) -
-                           (int)secondDown.getX());
-        int deltaY = (int)(fling.mCurrentDownEvent.getY(idx) -
-                           (int)secondDown.getY());
-        return (deltaX * deltaX + deltaY * deltaY < mDoubleTapSlopSquare);
-    }
-
-    private void dispatchLongPress(FlingState fling, int idx, int pid)
-    {
-        Log.d(TAG, "dispatchLongPress");
-        mHandler.removeMessages(TAP);
-        fling.mInLongPress = true;
-        mListener.onLongPress(fling.mCurrentDownEvent, idx, pid);
     }
 }
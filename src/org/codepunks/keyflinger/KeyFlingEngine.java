@@ -0,0 +1,761 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+/*
+ * Copyright (C) 2008 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.codepunks.keyflinger;
+
+import org.codepunks.keyflinger.util.PointerSlotMap;
+import org.codepunks.keyflinger.util.Pool;
+import org.codepunks.keyflinger.util.VelocityTracker;
+
+/**
+ * The tap/fling/long-press/repeat state machine behind
+ * {@link KeyFlingDetector}. It is fed primitive pointer samples and reports
+ * through {@link Listener}, and does not touch any android classes, so it can
+ * be driven under a plain JVM. Nothing is allocated per event.
+ *
+ * Pointers are tracked by slot rather than by pointer index. Each pointer id
+ * is given a slot when it first shows up and keeps it until it goes up, and
+ * all per-pointer state is stored in arrays indexed by slot. The slot arrays
+ * start out sized for {@link #DEFAULT_POINTER_SLOTS} pointers and only grow
+ * when more fingers than that are down at once.
+ */
+public class KeyFlingEngine
+{
+    // Same values as the MotionEvent actions so they can be passed through
+    public static final int ACTION_DOWN = 0;
+    public static final int ACTION_UP = 1;
+    public static final int ACTION_MOVE = 2;
+    public static final int ACTION_CANCEL = 3;
+    public static final int ACTION_POINTER_DOWN = 5;
+    public static final int ACTION_POINTER_UP = 6;
+
+    // Timer kinds, one pending deadline of each per pointer slot
+    public static final int SHOW_PRESS = 0;
+    public static final int LONG_PRESS = 1;
+    public static final int TAP = 2;
+    public static final int REPEAT = 3;
+    public static final int NUM_TIMERS = 4;
+
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+    private static final int NEXT_UNKNOWN = -2;
+
+    public static final int DEFAULT_LONGPRESS_TIMEOUT = 500;
+    public static final int DEFAULT_TAP_TIMEOUT = 100;
+    public static final int DEFAULT_DOUBLE_TAP_TIMEOUT = 300;
+    public static final int DEFAULT_MAXIMUM_FLING_VELOCITY = 4000;
+    public static final int DEFAULT_POINTER_SLOTS = 10;
+    public static final int DEFAULT_EARLY_FLING_DISTANCE = 30;
+    public static final int DEFAULT_EARLY_FLING_VELOCITY = 300;
+    public static final int DEFAULT_VELOCITY_HISTORY = 10;
+
+    public interface Listener
+    {
+        boolean onDown(int slot, int pid);
+        void onShowPress(int slot, int pid);
+        boolean onSingleTapUp(int slot, int pid);
+        boolean onRepeat(int slot, int pid);
+        boolean onScroll(int slot, int pid, float distanceX, float distanceY);
+        void onLongPress(int slot, int pid);
+        boolean onFling(int slot, int pid, float velocityX, float velocityY);
+        boolean onSingleTapConfirmed(int slot, int pid);
+        boolean onDoubleTap(int slot, int pid);
+        boolean onDoubleTapEvent(int slot, int pid);
+        void onUp(int slot, int pid);
+    }
+
+    /**
+     * Owner of the clock. The engine keeps its own deadlines and only ever
+     * needs a single wakeup for the earliest one. Times are in the same base
+     * as the event times given to {@link #onTouchEvent}.
+     */
+    public interface Scheduler
+    {
+        /**
+         * Call {@link #onTimer} at or after the given time. A pending wakeup
+         * that is earlier may be kept instead, since it just finds nothing
+         * due and asks again.
+         */
+        void wakeAt(long when);
+    }
+
+    private static class PointerState
+    {
+        int mPointerId;
+        float mDownX;
+        float mDownY;
+        long mDownTime;
+        long mPreviousUpTime;
+        boolean mHasDown;
+        boolean mHasPreviousUp;
+        float mLastMotionX;
+        float mLastMotionY;
+        boolean mStillDown;
+        boolean mInLongPress;
+        boolean mAlwaysInTapRegion;
+        boolean mAlwaysInBiggerTapRegion;
+        // True when the user is still touching for the second tap (down,
+        // move, and up events). Can only be true if double taps are enabled.
+        boolean mIsDoubleTapping;
+        // True once the fling of this stroke has been reported mid-stroke.
+        // The rest of the stroke, up included, is then swallowed.
+        boolean mFlingCommitted;
+    }
+
+    private final Listener mListener;
+    private final Scheduler mScheduler;
+    private boolean mIsDoubleTapEnabled;
+
+    private int mLongPressTimeout = DEFAULT_LONGPRESS_TIMEOUT;
+    private int mTapTimeout = DEFAULT_TAP_TIMEOUT;
+    private int mDoubleTapTimeout = DEFAULT_DOUBLE_TAP_TIMEOUT;
+    private int mInitialRepeatTimeout = DEFAULT_LONGPRESS_TIMEOUT / 2;
+    private int mRepeatTimeout = DEFAULT_LONGPRESS_TIMEOUT / 4;
+
+    private int mBiggerTouchSlopSquare = 20 * 20;
+    private int mTouchSlopSquare = 20;
+    private int mDoubleTapSlopSquare = 100;
+    private int mMinimumFlingVelocity = 5;
+    private int mMaximumFlingVelocity = DEFAULT_MAXIMUM_FLING_VELOCITY;
+    private boolean mIsLongpressEnabled = true;
+    private boolean mIsEarlyFlingEnabled = false;
+    private int mEarlyFlingDistanceSquare =
+        DEFAULT_EARLY_FLING_DISTANCE * DEFAULT_EARLY_FLING_DISTANCE;
+    private int mEarlyFlingVelocitySquare =
+        DEFAULT_EARLY_FLING_VELOCITY * DEFAULT_EARLY_FLING_VELOCITY;
+    private int mVelocityEstimator = VelocityTracker.ESTIMATOR_AVERAGE;
+    private int mVelocityHistory = DEFAULT_VELOCITY_HISTORY;
+
+    private final PointerSlotMap mSlots;
+    private PointerState[] mPointers;
+    // Pending deadlines, indexed by slot * NUM_TIMERS + kind
+    private long[] mDeadlines;
+    // Index of the earliest deadline, -1 if none, NEXT_UNKNOWN to rescan
+    private int mNextTimer = -1;
+    // The time the scheduler was last asked to wake us at
+    private long mWakeup = NO_DEADLINE;
+
+    private VelocityTracker mVelocityTracker;
+    // The engine is driven from one thread, and holds one tracker at a time
+    private final Pool<VelocityTracker> mTrackerPool =
+        VelocityTracker.newPool(1);
+
+    public KeyFlingEngine(Listener listener, Scheduler scheduler)
+    {
+        if (listener == null)
+        {
+            throw new NullPointerException("Listener must not be null");
+        }
+        if (scheduler == null)
+        {
+            throw new NullPointerException("Scheduler must not be null");
+        }
+        mListener = listener;
+        mScheduler = scheduler;
+
+        mSlots = new PointerSlotMap(DEFAULT_POINTER_SLOTS);
+        mPointers = new PointerState[0];
+        mDeadlines = new long[0];
+        ensureSlotCapacity();
+    }
+
+    public void setTimeouts(int longPressTimeout, int tapTimeout,
+                            int doubleTapTimeout)
+    {
+        mLongPressTimeout = longPressTimeout;
+        mTapTimeout = tapTimeout;
+        mDoubleTapTimeout = doubleTapTimeout;
+        mInitialRepeatTimeout = longPressTimeout / 2;
+        mRepeatTimeout = mInitialRepeatTimeout / 2;
+    }
+
+    public void setParams(int touchSlop, int doubleTapSlop, int minFlingVelocity,
+                          boolean longPressEnabled)
+    {
+        mTouchSlopSquare = touchSlop;
+        mDoubleTapSlopSquare = doubleTapSlop;
+        mMinimumFlingVelocity = minFlingVelocity;
+        mIsLongpressEnabled = longPressEnabled;
+    }
+
+    public void setMaximumFlingVelocity(int maximumFlingVelocity)
+    {
+        mMaximumFlingVelocity = maximumFlingVelocity;
+    }
+
+    /**
+     * @param estimator One of the VelocityTracker ESTIMATOR_* modes, used
+     * from the next stroke on.
+     */
+    public void setVelocityEstimator(int estimator)
+    {
+        mVelocityEstimator = estimator;
+    }
+
+    /**
+     * @param depth How many samples of each pointer the velocity tracker
+     * keeps, at least 2, used from the next stroke on.
+     */
+    public void setVelocityHistory(int depth)
+    {
+        if (depth < 2)
+        {
+            throw new IllegalArgumentException("depth must be at least 2");
+        }
+        mVelocityHistory = depth;
+    }
+
+    public void setDoubleTapSlopSquare(int doubleTapSlopSquare)
+    {
+        mDoubleTapSlopSquare = doubleTapSlopSquare;
+    }
+
+    public void setDoubleTapEnabled(boolean doubleTapEnabled)
+    {
+        mIsDoubleTapEnabled = doubleTapEnabled;
+    }
+
+    public void setIsLongpressEnabled(boolean isLongpressEnabled)
+    {
+        mIsLongpressEnabled = isLongpressEnabled;
+    }
+
+    public boolean isLongpressEnabled()
+    {
+        return mIsLongpressEnabled;
+    }
+
+    /**
+     * Report a fling as soon as the pointer has moved at least distance
+     * pixels from where it went down while still moving at velocity pixels
+     * per second, instead of waiting for it to lift. If the listener takes
+     * the fling, the rest of the stroke is consumed without further
+     * callbacks.
+     */
+    public void setEarlyFling(boolean enabled, int distance, int velocity)
+    {
+        mIsEarlyFlingEnabled = enabled;
+        mEarlyFlingDistanceSquare = distance * distance;
+        mEarlyFlingVelocitySquare = velocity * velocity;
+    }
+
+    public boolean isEarlyFlingEnabled()
+    {
+        return mIsEarlyFlingEnabled;
+    }
+
+    /**
+     * @return The slot held by the given pointer id, or
+     * {@link PointerSlotMap#NO_SLOT} if it is not down.
+     */
+    public int getSlot(int pid)
+    {
+        return mSlots.get(pid);
+    }
+
+    /**
+     * @return The number of pointer slots, every slot handed to the
+     * {@link Listener} is below this.
+     */
+    public int getSlotCapacity()
+    {
+        return mPointers.length;
+    }
+
+    /**
+     * Feed one position sample of a pointer to the velocity tracker. Call
+     * this for every historical and current sample of an event before
+     * handing the event itself to {@link #onTouchEvent}. This is also where a
+     * new pointer gets its slot.
+     */
+    public void addMovement(int pid, float x, float y, long time)
+    {
+        if (mVelocityTracker == null)
+        {
+            mVelocityTracker = mTrackerPool.acquire();
+            // Only lays the history out again when the depth has changed
+            mVelocityTracker.setCapacity(mPointers.length, mVelocityHistory);
+            mVelocityTracker.setEstimator(mVelocityEstimator);
+        }
+        final int slot = acquireSlot(pid);
+        mVelocityTracker.addMovement(slot, x, y, time);
+    }
+
+    public boolean onTouchEvent(int action, int pid, float x, float y, long time)
+    {
+        if (action == ACTION_CANCEL)
+        {
+            cancelAllPointers();
+            return false;
+        }
+
+        final int slot = acquireSlot(pid);
+        final PointerState ps = mPointers[slot];
+        boolean handled = false;
+
+        if ((action == ACTION_DOWN) || (action == ACTION_POINTER_DOWN))
+        {
+            if (mIsDoubleTapEnabled)
+            {
+                boolean hadTapMessage = isScheduled(slot, TAP);
+                if (hadTapMessage)
+                {
+                    cancel(slot, TAP);
+                    cancel(slot, REPEAT);
+                }
+                if (ps.mHasDown && ps.mHasPreviousUp && hadTapMessage &&
+                    isConsideredDoubleTap(ps, x, y, time))
+                {
+                    // This is a second tap
+                    ps.mIsDoubleTapping = true;
+                    // Give a callback with the first tap of the double-tap
+                    handled |= mListener.onDoubleTap(slot, pid);
+                    // Give a callback with down event of the double-tap
+                    handled |= mListener.onDoubleTapEvent(slot, pid);
+                }
+                else
+                {
+                    // This is a first tap
+                    schedule(slot, TAP, time + mDoubleTapTimeout);
+                    schedule(slot, REPEAT, time + mInitialRepeatTimeout);
+                }
+            }
+
+            ps.mPointerId = pid;
+            ps.mLastMotionX = x;
+            ps.mLastMotionY = y;
+            ps.mDownX = x;
+            ps.mDownY = y;
+            ps.mDownTime = time;
+            ps.mHasDown = true;
+            ps.mAlwaysInTapRegion = true;
+            ps.mAlwaysInBiggerTapRegion = true;
+            ps.mStillDown = true;
+            ps.mInLongPress = false;
+            ps.mFlingCommitted = false;
+
+            if (mIsLongpressEnabled)
+            {
+                schedule(slot, LONG_PRESS,
+                         time + mTapTimeout + mLongPressTimeout);
+            }
+            schedule(slot, SHOW_PRESS, time + mTapTimeout);
+            handled |= mListener.onDown(slot, pid);
+        }
+        else if ((action == ACTION_MOVE) && ps.mFlingCommitted)
+        {
+            handled = true;
+        }
+        else if ((action == ACTION_MOVE) && !ps.mInLongPress)
+        {
+            final float scrollX = ps.mLastMotionX - x;
+            final float scrollY = ps.mLastMotionY - y;
+            if (ps.mIsDoubleTapping)
+            {
+                // Give the move events of the double-tap
+                handled |= mListener.onDoubleTapEvent(slot, pid);
+            }
+            else if (ps.mAlwaysInTapRegion)
+            {
+                final int deltaX = (int) (x - ps.mDownX);
+                final int deltaY = (int) (y - ps.mDownY);
+                int distance = (deltaX * deltaX) + (deltaY * deltaY);
+                if (distance > mTouchSlopSquare)
+                {
+                    handled = mListener.onScroll(slot, pid, scrollX, scrollY);
+                    ps.mLastMotionX = x;
+                    ps.mLastMotionY = y;
+                    ps.mAlwaysInTapRegion = false;
+                    cancelAll(slot);
+                }
+                if (distance > mBiggerTouchSlopSquare)
+                {
+                    ps.mAlwaysInBiggerTapRegion = false;
+                }
+            }
+            else if ((Math.abs(scrollX) >= 1) || (Math.abs(scrollY) >= 1))
+            {
+                handled = mListener.onScroll(slot, pid, scrollX, scrollY);
+                ps.mLastMotionX = x;
+                ps.mLastMotionY = y;
+            }
+
+            if (mIsEarlyFlingEnabled && !ps.mAlwaysInTapRegion &&
+                !ps.mIsDoubleTapping && isEarlyFling(ps, slot, x, y))
+            {
+                final VelocityTracker velocityTracker = mVelocityTracker;
+                if (mListener.onFling(slot, pid,
+                                      velocityTracker.getXVelocity(slot),
+                                      velocityTracker.getYVelocity(slot)))
+                {
+                    ps.mFlingCommitted = true;
+                    cancelAll(slot);
+                    handled = true;
+                }
+            }
+        }
+        else if ((action == ACTION_UP) || (action == ACTION_POINTER_UP))
+        {
+            ps.mStillDown = false;
+            if (ps.mFlingCommitted)
+            {
+                // Already reported from a move
+                ps.mFlingCommitted = false;
+                handled = true;
+            }
+            else if (ps.mIsDoubleTapping)
+            {
+                // Finally, give the up event of the double-tap
+                handled |= mListener.onDoubleTapEvent(slot, pid);
+            }
+            else if (ps.mInLongPress)
+            {
+                cancel(slot, TAP);
+                cancel(slot, REPEAT);
+                ps.mInLongPress = false;
+            }
+            else if (ps.mAlwaysInTapRegion)
+            {
+                handled = mListener.onSingleTapUp(slot, pid);
+            }
+            else if (mVelocityTracker != null)
+            {
+                // A fling must travel the minimum tap distance
+                final VelocityTracker velocityTracker = mVelocityTracker;
+                velocityTracker.computeCurrentVelocity(slot, 1000,
+                                                       mMaximumFlingVelocity);
+                final float velocityY = velocityTracker.getYVelocity(slot);
+                final float velocityX = velocityTracker.getXVelocity(slot);
+
+                if ((Math.abs(velocityY) > mMinimumFlingVelocity) ||
+                    (Math.abs(velocityX) > mMinimumFlingVelocity))
+                {
+                    handled = mListener.onFling(slot, pid, velocityX, velocityY);
+                }
+            }
+            ps.mPreviousUpTime = time;
+            ps.mHasPreviousUp = true;
+            mListener.onUp(slot, pid);
+            if (action == ACTION_UP)
+            {
+                recycleVelocityTracker();
+                ps.mIsDoubleTapping = false;
+                // The last pointer is up, nothing can still be pending
+                for (int i = 0; i < mPointers.length; ++i)
+                {
+                    cancelAll(i);
+                }
+                mSlots.clear();
+            }
+            else
+            {
+                // Nothing more to compute for this slot until it is reused
+                if (mVelocityTracker != null)
+                {
+                    mVelocityTracker.clear(slot);
+                }
+                mSlots.release(pid);
+            }
+        }
+
+        return handled;
+    }
+
+    private void cancelAllPointers()
+    {
+        for (int i = 0; i < mPointers.length; ++i)
+        {
+            final PointerState ps = mPointers[i];
+            cancelAll(i);
+            ps.mIsDoubleTapping = false;
+            ps.mStillDown = false;
+            ps.mInLongPress = false;
+            ps.mFlingCommitted = false;
+        }
+        recycleVelocityTracker();
+        mSlots.clear();
+    }
+
+    /**
+     * @return The slot of the given pointer id, giving it the lowest free
+     * one if it is not down yet. The event bringing the pointer down then
+     * finds it in the same slot.
+     */
+    public int acquireSlot(int pid)
+    {
+        int slot = mSlots.get(pid);
+        if (slot == PointerSlotMap.NO_SLOT)
+        {
+            slot = mSlots.acquire(pid);
+            ensureSlotCapacity();
+            // Drop whatever an earlier pointer left behind in this slot
+            if (mVelocityTracker != null)
+            {
+                mVelocityTracker.clear(slot);
+            }
+        }
+        return slot;
+    }
+
+    private void ensureSlotCapacity()
+    {
+        final int capacity = mSlots.getCapacity();
+        final int old = mPointers.length;
+        if (capacity <= old)
+        {
+            return;
+        }
+
+        PointerState[] pointers = new PointerState[capacity];
+        System.arraycopy(mPointers, 0, pointers, 0, old);
+        for (int i = old; i < capacity; ++i)
+        {
+            pointers[i] = new PointerState();
+        }
+        mPointers = pointers;
+
+        long[] deadlines = new long[capacity * NUM_TIMERS];
+        System.arraycopy(mDeadlines, 0, deadlines, 0, mDeadlines.length);
+        java.util.Arrays.fill(deadlines, mDeadlines.length, deadlines.length,
+                              NO_DEADLINE);
+        mDeadlines = deadlines;
+    }
+
+    /**
+     * Called by the owner of the {@link Scheduler} when the wakeup it was
+     * asked for comes due. Dispatches every timer whose deadline has passed,
+     * earliest first, and asks for the next wakeup if any timers remain.
+     *
+     * @param now The current time, in the event time base.
+     */
+    public void onTimer(long now)
+    {
+        mWakeup = NO_DEADLINE;
+        final long[] deadlines = mDeadlines;
+        while (true)
+        {
+            int next = nextTimer();
+            if ((next < 0) || (deadlines[next] > now))
+            {
+                break;
+            }
+            deadlines[next] = NO_DEADLINE;
+            mNextTimer = NEXT_UNKNOWN;
+            dispatchTimer(next / NUM_TIMERS, next % NUM_TIMERS, now);
+        }
+
+        long next = getNextDeadline();
+        if ((next != NO_DEADLINE) && (next < mWakeup))
+        {
+            mWakeup = next;
+            mScheduler.wakeAt(next);
+        }
+    }
+
+    /**
+     * @return The earliest pending deadline, or {@link #NO_DEADLINE}.
+     */
+    public long getNextDeadline()
+    {
+        int next = nextTimer();
+        return (next < 0) ? NO_DEADLINE : mDeadlines[next];
+    }
+
+    private int nextTimer()
+    {
+        if (mNextTimer != NEXT_UNKNOWN)
+        {
+            return mNextTimer;
+        }
+        final long[] deadlines = mDeadlines;
+        int next = -1;
+        long earliest = NO_DEADLINE;
+        for (int i = 0; i < deadlines.length; ++i)
+        {
+            if (deadlines[i] < earliest)
+            {
+                earliest = deadlines[i];
+                next = i;
+            }
+        }
+        mNextTimer = next;
+        return next;
+    }
+
+    private void dispatchTimer(int slot, int what, long now)
+    {
+        final PointerState ps = mPointers[slot];
+        final int pid = ps.mPointerId;
+
+        switch (what)
+        {
+        case SHOW_PRESS:
+            mListener.onShowPress(slot, pid);
+            break;
+        case LONG_PRESS:
+            if (mIsLongpressEnabled)
+            {
+                dispatchLongPress(ps, slot, pid);
+            }
+            break;
+        case TAP:
+            // If the user's finger is still down, do not count it as a tap
+            if (mIsDoubleTapEnabled && !ps.mStillDown)
+            {
+                mListener.onSingleTapConfirmed(slot, pid);
+            }
+            break;
+        case REPEAT:
+            if (ps.mAlwaysInTapRegion)
+            {
+                mListener.onRepeat(slot, pid);
+                schedule(slot, REPEAT, now + mRepeatTimeout);
+            }
+            break;
+        default:
+            throw new RuntimeException("Unknown timer " + what); //never
+        }
+    }
+
+    private void schedule(int slot, int what, long when)
+    {
+        final int timer = slot * NUM_TIMERS + what;
+        mDeadlines[timer] = when;
+        if (mNextTimer == timer)
+        {
+            // Pushed back, something else may now be earlier
+            mNextTimer = NEXT_UNKNOWN;
+        }
+        else if ((mNextTimer == -1) || ((mNextTimer >= 0) &&
+                 isBefore(when, timer, mDeadlines[mNextTimer], mNextTimer)))
+        {
+            mNextTimer = timer;
+        }
+        if (when < mWakeup)
+        {
+            mWakeup = when;
+            mScheduler.wakeAt(when);
+        }
+    }
+
+    // Ties go to the lower index, the order a scan would find them in
+    private static boolean isBefore(long when, int timer, long other,
+                                    int otherTimer)
+    {
+        return (when < other) || ((when == other) && (timer < otherTimer));
+    }
+
+    // A stale wakeup left behind by a cancel just finds nothing due
+    private void cancel(int slot, int what)
+    {
+        final int timer = slot * NUM_TIMERS + what;
+        mDeadlines[timer] = NO_DEADLINE;
+        if (mNextTimer == timer)
+        {
+            mNextTimer = NEXT_UNKNOWN;
+        }
+    }
+
+    private void cancelAll(int slot)
+    {
+        final int base = slot * NUM_TIMERS;
+        for (int i = 0; i < NUM_TIMERS; ++i)
+        {
+            mDeadlines[base + i] = NO_DEADLINE;
+        }
+        if ((mNextTimer >= base) && (mNextTimer < base + NUM_TIMERS))
+        {
+            mNextTimer = NEXT_UNKNOWN;
+        }
+    }
+
+    private boolean isScheduled(int slot, int what)
+    {
+        return mDeadlines[slot * NUM_TIMERS + what] != NO_DEADLINE;
+    }
+
+    private void recycleVelocityTracker()
+    {
+        if (mVelocityTracker != null)
+        {
+            mVelocityTracker.recycle();
+            mVelocityTracker = null;
+        }
+    }
+
+    /**
+     * Has the pointer moved far and fast enough to call the fling now? Leaves
+     * the velocity of the slot computed if so.
+     */
+    private boolean isEarlyFling(PointerState ps, int slot, float x, float y)
+    {
+        final int deltaX = (int) (x - ps.mDownX);
+        final int deltaY = (int) (y - ps.mDownY);
+        if ((deltaX * deltaX) + (deltaY * deltaY) < mEarlyFlingDistanceSquare)
+        {
+            return false;
+        }
+        if (mVelocityTracker == null)
+        {
+            return false;
+        }
+        mVelocityTracker.computeCurrentVelocity(slot, 1000,
+                                                mMaximumFlingVelocity);
+        final float velocityX = mVelocityTracker.getXVelocity(slot);
+        final float velocityY = mVelocityTracker.getYVelocity(slot);
+        return ((velocityX * velocityX) + (velocityY * velocityY) >=
+                mEarlyFlingVelocitySquare);
+    }
+
+    private boolean isConsideredDoubleTap(PointerState ps, float x, float y,
+                                          long time)
+    {
+        if (!ps.mAlwaysInBiggerTapRegion)
+        {
+            return false;
+        }
+
+        if ((time - ps.mPreviousUpTime) > mDoubleTapTimeout)
+        {
+            return false;
+        }
+
+        int deltaX = (int)ps.mDownX - (int)x;
+        int deltaY = (int)ps.mDownY - (int)y;
+        return (deltaX * deltaX + deltaY * deltaY < mDoubleTapSlopSquare);
+    }
+
+    private void dispatchLongPress(PointerState ps, int slot, int pid)
+    {
+        cancel(slot, TAP);
+        ps.mInLongPress = true;
+        mListener.onLongPress(slot, pid);
+    }
+}
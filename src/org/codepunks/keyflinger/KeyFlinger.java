@@ -36,6 +36,9 @@ import android.content.res.Resources;
 import android.inputmethodservice.InputMethodService;
 import android.inputmethodservice.Keyboard;
 import android.inputmethodservice.KeyboardView;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.text.method.MetaKeyKeyListener;
 import android.util.Log;
@@ -46,10 +49,20 @@ import android.view.inputmethod.CompletionInfo;
 import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputConnection;
 
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.codepunks.keyflinger.util.PoolStats;
+import org.codepunks.keyflinger.util.Pools;
+import org.codepunks.keyflinger.util.VelocityTracker;
 
 public class KeyFlinger extends InputMethodService 
     implements KeyboardView.OnKeyboardActionListener
@@ -59,6 +72,8 @@ public class KeyFlinger extends InputMethodService
 
     public final static int KEY_ESCAPE = 27;
     public final static String DEF_KEYBOARD_NAME = "kb_qwerty";
+    // The fits are opt-in until the fling thresholds are tuned for them
+    public final static String DEF_VELOCITY_ESTIMATOR = "average";
     
     /**
      * This boolean indicates the optional example code for performing
@@ -75,6 +90,8 @@ public class KeyFlinger extends InputMethodService
     private CompletionInfo[] mCompletions;
     
     private StringBuilder mComposing = new StringBuilder();
+    // Number of chars at the end of mComposing that are a speculative tap
+    private int mSpeculation = 0;
     private boolean mPredictionOn;
     private boolean mCompletionOn;
     private int mLastDisplayWidth;
@@ -108,6 +125,28 @@ public class KeyFlinger extends InputMethodService
     public int mTouchSlop = 10;
     public int mDoubleTapSlop = 100;
     public int mMinFlingVelocity = 5;
+    public String mVelocityEstimator = DEF_VELOCITY_ESTIMATOR;
+    public int mVelocityHistory = KeyFlingEngine.DEFAULT_VELOCITY_HISTORY;
+    public boolean mEarlyFlingEnabled = false;
+    public boolean mSpeculativeTapEnabled = false;
+    public boolean mTouchJournalEnabled = false;
+    public boolean mMaskOverlayEnabled = false;
+    public boolean mSingleBufferEnabled = false;
+
+    static final String TOUCH_JOURNAL_FILE = "touch.journal";
+    // How long a dump waits for the UI thread to copy the touch journal
+    static final int TOUCH_JOURNAL_SNAPSHOT_TIMEOUT = 1000;
+    // Pool operations an object may stay out for before it is reported as
+    // leaked, in debug builds with pool statistics on
+    static final int POOL_LEAK_OPS = 64;
+    // Kept across input views once created, so a recording survives them
+    private TouchJournal mTouchJournal;
+
+    private final LatencyStats mLatency = new LatencyStats();
+    // Kind and touch time of the key being sent, set by the view around each
+    // dispatch and consumed by the first commit
+    private int mTagKind = -1;
+    private long mTagTime;
 
     /**
      * Main initialization of the input method component.  Be sure to call
@@ -117,6 +156,27 @@ public class KeyFlinger extends InputMethodService
     {
 		Log.d(TAG, "onCreate");
         super.onCreate();
+        // Pools take their statistics when made, so this is only read here
+        SharedPreferences sp =
+            PreferenceManager.getDefaultSharedPreferences(getBaseContext());
+        if (sp.getBoolean("poolStats", false))
+        {
+            Pools.setStatsEnabled(true);
+            if (DEBUG)
+            {
+                Pools.setLeakThreshold(POOL_LEAK_OPS);
+                Pools.setLeakListener(new PoolStats.LeakListener()
+                    {
+                        public void onLeak(PoolStats stats, Object element,
+                                           int ops)
+                        {
+                            Log.w(TAG, String.format(
+                                      "%s: %s not released after %d operations",
+                                      stats.getName(), element, ops));
+                        }
+                    });
+            }
+        }
 
         Resources res = getResources();
         mWordSeparators = res.getString(R.string.word_separators);
@@ -216,6 +276,7 @@ public class KeyFlinger extends InputMethodService
         // Reset our state.  We want to do this even if restarting, because
         // the underlying state of the text editor could have changed in any way.
         mComposing.setLength(0);
+        mSpeculation = 0;
         updateCandidates();
         
         if (!restarting)
@@ -318,6 +379,7 @@ public class KeyFlinger extends InputMethodService
         
         // Clear current composing text and candidates.
         mComposing.setLength(0);
+        mSpeculation = 0;
         updateCandidates();
         
         // We only hide the candidates window when finishing input on
@@ -361,6 +423,7 @@ public class KeyFlinger extends InputMethodService
             ((newSelStart != candidatesEnd) || (newSelEnd != candidatesEnd)))
         {
             mComposing.setLength(0);
+            mSpeculation = 0;
             updateCandidates();
             InputConnection ic = getCurrentInputConnection();
             if (ic != null)
@@ -550,6 +613,7 @@ public class KeyFlinger extends InputMethodService
         {
             inputConnection.commitText(mComposing, mComposing.length());
             mComposing.setLength(0);
+            mSpeculation = 0;
             updateCandidates();
         }
     }
@@ -622,6 +686,7 @@ public class KeyFlinger extends InputMethodService
             }
             break;
         }
+        recordCommit();
     }
 
     // Implementation of KeyboardViewListener
@@ -748,6 +813,7 @@ public class KeyFlinger extends InputMethodService
         }
         ic.commitText(text, 0);
         ic.endBatchEdit();
+        recordCommit();
         updateShiftKeyState(getCurrentInputEditorInfo());
     }
 
@@ -811,6 +877,7 @@ public class KeyFlinger extends InputMethodService
         {
             keyDownUp(KeyEvent.KEYCODE_DEL);
         }
+        recordCommit();
         updateShiftKeyState(getCurrentInputEditorInfo());
     }
 
@@ -842,6 +909,7 @@ public class KeyFlinger extends InputMethodService
         {
             mComposing.append((char) primaryCode);
             getCurrentInputConnection().setComposingText(mComposing, 1);
+            recordCommit();
             updateShiftKeyState(getCurrentInputEditorInfo());
             updateCandidates();
         }
@@ -862,10 +930,101 @@ public class KeyFlinger extends InputMethodService
             }
             getCurrentInputConnection().commitText(
                 String.valueOf((char) primaryCode), 1);
+            recordCommit();
         }
         mIsControlSet = false;
     }
 
+    /**
+     * Can the character be shown as composing text and later committed as
+     * is? Only plain characters that handleCharacter would send.
+     */
+    private boolean isSpeculable(int code)
+    {
+        return (code >= ' ') && !isWordSeparator(code) && !mIsControlSet;
+    }
+
+    /**
+     * Show the tap character of a key that was just pressed as composing
+     * text, before it is known whether the stroke is a tap. It is made final
+     * by {@link #confirmSpeculation} or taken back by
+     * {@link #rollbackSpeculation}.
+     *
+     * @return True if the character is now shown.
+     */
+    public boolean speculate(int primaryCode)
+    {
+        InputConnection ic = getCurrentInputConnection();
+        if (!mSpeculativeTapEnabled || (mSpeculation > 0) || (ic == null) ||
+            !isSpeculable(primaryCode))
+        {
+            return false;
+        }
+        if (isInputViewShown() && mInputView.isShifted())
+        {
+            primaryCode = Character.toUpperCase(primaryCode);
+        }
+        mComposing.append((char) primaryCode);
+        mSpeculation = 1;
+        ic.setComposingText(mComposing, 1);
+        recordCommit();
+        return true;
+    }
+
+    public boolean isSpeculating()
+    {
+        return mSpeculation > 0;
+    }
+
+    /**
+     * The stroke was a tap, the speculative character becomes real. Ends up
+     * where handleCharacter would have put it.
+     */
+    public void confirmSpeculation()
+    {
+        if (mSpeculation == 0)
+        {
+            return;
+        }
+        final char c = mComposing.charAt(mComposing.length() - 1);
+        mSpeculation = 0;
+        if (isAlphabet(c) && mPredictionOn)
+        {
+            updateShiftKeyState(getCurrentInputEditorInfo());
+            updateCandidates();
+        }
+        else
+        {
+            commitTyped(getCurrentInputConnection());
+        }
+    }
+
+    /**
+     * The stroke turned into something else. The speculative character is
+     * dropped from mComposing. If the character about to be sent for the
+     * stroke will itself go through handleCharacter, the editor is left
+     * alone, so that edit replaces the composing text in one step. Otherwise,
+     * or with a negative code, the character is removed from the editor now.
+     */
+    public void rollbackSpeculation(int code)
+    {
+        if (mSpeculation == 0)
+        {
+            return;
+        }
+        mComposing.setLength(mComposing.length() - mSpeculation);
+        mSpeculation = 0;
+        if (!isSpeculable(code) ||
+            ((mComposing.length() > 0) && !(isAlphabet(code) && mPredictionOn)))
+        {
+            InputConnection ic = getCurrentInputConnection();
+            if (ic != null)
+            {
+                ic.setComposingText(mComposing, 1);
+            }
+        }
+    }
+
     private void handleClose()
     {
         commitTyped(getCurrentInputConnection());
@@ -943,6 +1102,11 @@ public class KeyFlinger extends InputMethodService
     
     public void onPress(int primaryCode)
     {
+        if ((mInputView != null) && mInputView.isMiniKeyboardOnScreen())
+        {
+            // The popup's touches never reach us, time from its press
+            tagKey(LatencyStats.POPUP, SystemClock.uptimeMillis());
+        }
     }
     
     public void onRelease(int primaryCode)
@@ -973,6 +1137,12 @@ public class KeyFlinger extends InputMethodService
               "flingUp: " + key.mDLabels[LatinKeyboard.KEY_INDEX_UP]);
     }
 
+    public void flingDiagonal(LatinKeyboard.LatinKey key, int direction)
+    {
+		Log.d(TAG, "fling" + LatinKeyboard.KEY_INDEX_NAMES[direction] + ": " +
+              key.mDLabels[direction]);
+    }
+
     protected void setConfigedKeyboard()
     {
         switch (mInputAttribute.inputType & EditorInfo.TYPE_MASK_CLASS)
@@ -1031,6 +1201,15 @@ public class KeyFlinger extends InputMethodService
                 Integer.parseInt(sp.getString("doubleTapSlop", "100"));
             mMinFlingVelocity =
                 Integer.parseInt(sp.getString("minFlingVelocity", "5"));
+            mVelocityEstimator = sp.getString("velocityEstimator",
+                                              DEF_VELOCITY_ESTIMATOR);
+            mVelocityHistory =
+                Integer.parseInt(sp.getString("velocityHistory", "10"));
+            mEarlyFlingEnabled = sp.getBoolean("earlyFling", false);
+            mSpeculativeTapEnabled = sp.getBoolean("speculativeTap", false);
+            mTouchJournalEnabled = sp.getBoolean("touchJournal", false);
+            mMaskOverlayEnabled = sp.getBoolean("maskOverlay", false);
+            mSingleBufferEnabled = sp.getBoolean("singleBuffer", false);
         }
         catch (ClassCastException e)
         {
@@ -1048,9 +1227,37 @@ public class KeyFlinger extends InputMethodService
         {
             mInputView.setParams(mTouchSlop, mDoubleTapSlop, mMinFlingVelocity,
                                  mLongPressEnabled);
+            mInputView.setVelocityEstimator(getVelocityEstimator());
+            // The tracker needs two samples to tell a direction
+            mInputView.setVelocityHistory(Math.max(mVelocityHistory, 2));
+            mInputView.setEarlyFling(mEarlyFlingEnabled);
+            mInputView.setMaskOverlay(mMaskOverlayEnabled);
+            mInputView.setSingleBuffer(mSingleBufferEnabled);
+            if (mTouchJournalEnabled && (mTouchJournal == null))
+            {
+                mTouchJournal = new TouchJournal();
+            }
+            mInputView.setTouchJournal(mTouchJournalEnabled ? mTouchJournal
+                                       : null);
         }
     }
 
+    /**
+     * @return The VelocityTracker estimator named by the preference.
+     */
+    protected int getVelocityEstimator()
+    {
+        if ("linear".equals(mVelocityEstimator))
+        {
+            return VelocityTracker.ESTIMATOR_LINEAR;
+        }
+        else if ("quadratic".equals(mVelocityEstimator))
+        {
+            return VelocityTracker.ESTIMATOR_QUADRATIC;
+        }
+        return VelocityTracker.ESTIMATOR_AVERAGE;
+    }
+
     protected void defaultPrefs()
     {
         Log.d(TAG, "Setting default prefs");
@@ -1058,5 +1265,139 @@ public class KeyFlinger extends InputMethodService
         mTouchSlop = 10;
         mDoubleTapSlop = 100;
         mMinFlingVelocity = 5;
+        mVelocityEstimator = DEF_VELOCITY_ESTIMATOR;
+        mVelocityHistory = KeyFlingEngine.DEFAULT_VELOCITY_HISTORY;
+        mEarlyFlingEnabled = false;
+        mSpeculativeTapEnabled = false;
+        mTouchJournalEnabled = false;
+        mMaskOverlayEnabled = false;
+        mSingleBufferEnabled = false;
+    }
+
+    /**
+     * Attribute the next commit to a key of the given LatencyStats kind,
+     * coming from a touch at eventTime (uptime base).
+     */
+    public void tagKey(int kind, long eventTime)
+    {
+        mTagKind = kind;
+        mTagTime = eventTime;
+    }
+
+    public void clearTag()
+    {
+        mTagKind = -1;
+    }
+
+    private void recordCommit()
+    {
+        if (mTagKind >= 0)
+        {
+            mLatency.record(mTagKind, mTagTime, SystemClock.uptimeMillis());
+            mTagKind = -1;
+        }
+    }
+
+    // Free the cached keyboard overlays; they are redrawn when next shown
+    @Override public void onLowMemory()
+    {
+        super.onLowMemory();
+        if (mInputView != null)
+        {
+            mInputView.trimOverlays();
+        }
+    }
+
+    /**
+     * dumpsys entry point. With the argument "journal" the touch journal is
+     * also saved to TOUCH_JOURNAL_FILE in the private files directory, from
+     * where it can be pulled and fed to TouchReplayer.
+     */
+    @Override protected void dump(FileDescriptor fd, PrintWriter fout,
+                                  String[] args)
+    {
+        super.dump(fd, fout, args);
+        mLatency.dump(fout);
+        Pools.dumpStats(fout);
+        final TouchJournal journal = mTouchJournal;
+        if (journal == null)
+        {
+            fout.println("Touch journal: off");
+            return;
+        }
+        final TouchJournal snapshot = snapshotJournal(journal);
+        if (snapshot == null)
+        {
+            fout.println("Touch journal: UI thread busy");
+            return;
+        }
+        fout.println(String.format("Touch journal: %d records, %d dropped",
+                                   snapshot.size(), snapshot.getDropped()));
+        if ((args == null) || !java.util.Arrays.asList(args).contains("journal"))
+        {
+            return;
+        }
+        FileOutputStream out = null;
+        try
+        {
+            out = openFileOutput(TOUCH_JOURNAL_FILE, MODE_PRIVATE);
+            snapshot.writeTo(out);
+            fout.println("Saved to " + getFileStreamPath(TOUCH_JOURNAL_FILE));
+        }
+        catch (IOException e)
+        {
+            fout.println("Saving failed: " + e.toString());
+        }
+        finally
+        {
+            if (out != null)
+            {
+                try
+                {
+                    out.close();
+                }
+                catch (IOException e)
+                {
+                }
+            }
+        }
+    }
+
+    /**
+     * The journal is recorded into on the UI thread while dump() runs on a
+     * binder thread, so copy it over there and wait for the copy.
+     *
+     * @return The copy, or null if the UI thread did not get to it in time.
+     */
+    private TouchJournal snapshotJournal(final TouchJournal journal)
+    {
+        if (Looper.myLooper() == Looper.getMainLooper())
+        {
+            return journal.copy();
+        }
+        final TouchJournal[] copy = new TouchJournal[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable()
+            {
+                public void run()
+                {
+                    copy[0] = journal.copy();
+                    done.countDown();
+                }
+            });
+        try
+        {
+            if (!done.await(TOUCH_JOURNAL_SNAPSHOT_TIMEOUT,
+                            TimeUnit.MILLISECONDS))
+            {
+                return null;
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return copy[0];
     }
 }
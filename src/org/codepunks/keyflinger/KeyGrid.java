@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger;
+
+import android.inputmethodservice.Keyboard;
+
+/**
+ * Key hit testing over a grid of cells, worked out once per keyboard. A cell
+ * lying wholly inside one key resolves a touch with a single array lookup.
+ * Only cells across a key edge test the few keys that reach into them.
+ *
+ * Every cell also holds the keys that can be near enough to a touch in it
+ * for proximity correction, so a touch on no key only measures those.
+ *
+ * A touch off the keyboard is on no key, as Keyboard.getNearestKeys() has
+ * no candidates there. Key geometry is copied out of the keys, and the
+ * framework's Key.isInside() and Key.squaredDistanceFrom() done here on the
+ * copies.
+ */
+public final class KeyGrid
+{
+    // Copied from android.inputmethodservice.Keyboard
+    static final public int NOT_A_KEY = -1000;
+
+    // Cells are this fraction of the smallest key on each side
+    private static final int CELLS_PER_KEY = 4;
+    private static final int MIN_CELL = 4;
+    // Primary of a cell no one key covers
+    private static final int MIXED = -1;
+
+    private final int[] mX;
+    private final int[] mY;
+    private final int[] mWidth;
+    private final int[] mHeight;
+    private final int[] mEdgeFlags;
+    private final int mKeyboardWidth;
+    private final int mKeyboardHeight;
+    private final int mThreshold;
+    private final int mCellWidth;
+    private final int mCellHeight;
+    private final int mColumns;
+    private final int mRows;
+    // Key covering the whole of each cell, or MIXED
+    private final int[] mPrimary;
+    // Keys reaching into each MIXED cell, lowest index first. Cell c's are
+    // the entries from mInsideStart[c] up to mInsideStart[c + 1].
+    private final int[] mInsideStart;
+    private final int[] mInside;
+    // Keys with a code above space near each cell, lowest index first
+    private final int[] mNearStart;
+    private final int[] mNear;
+
+    /**
+     * @param width Width of the keyboard, its minimum width.
+     * @param height Height of the keyboard.
+     * @param threshold Squared distance from a key's centre within which it
+     * counts as near.
+     */
+    public KeyGrid(Keyboard.Key[] keys, int width, int height, int threshold)
+    {
+        this(copyX(keys), copyY(keys), copyWidth(keys), copyHeight(keys),
+             copyEdgeFlags(keys), copyCodes(keys), width, height, threshold);
+    }
+
+    /**
+     * As above, with the geometry of key i given by x[i], y[i], width[i],
+     * height[i] and edgeFlags[i].
+     */
+    KeyGrid(int[] x, int[] y, int[] width, int[] height, int[] edgeFlags,
+            int[][] codes, int keyboardWidth, int keyboardHeight,
+            int threshold)
+    {
+        mX = x;
+        mY = y;
+        mWidth = width;
+        mHeight = height;
+        mEdgeFlags = edgeFlags;
+        mKeyboardWidth = keyboardWidth;
+        mKeyboardHeight = keyboardHeight;
+        mThreshold = threshold;
+        final int keyCount = x.length;
+
+        int minWidth = Integer.MAX_VALUE;
+        int minHeight = Integer.MAX_VALUE;
+        for (int i = 0; i < keyCount; ++i)
+        {
+            minWidth = Math.min(minWidth, width[i]);
+            minHeight = Math.min(minHeight, height[i]);
+        }
+        mCellWidth = Math.max(MIN_CELL, minWidth / CELLS_PER_KEY);
+        mCellHeight = Math.max(MIN_CELL, minHeight / CELLS_PER_KEY);
+        mColumns = Math.max(1, (keyboardWidth + mCellWidth - 1) / mCellWidth);
+        mRows = Math.max(1, (keyboardHeight + mCellHeight - 1) / mCellHeight);
+
+        final int cells = mColumns * mRows;
+        mPrimary = new int[cells];
+        mInsideStart = new int[cells + 1];
+        mNearStart = new int[cells + 1];
+        int[] inside = new int[cells];
+        int[] near = new int[cells];
+        int insideCount = 0;
+        int nearCount = 0;
+        for (int c = 0; c < cells; ++c)
+        {
+            final int left = (c % mColumns) * mCellWidth;
+            final int top = (c / mColumns) * mCellHeight;
+            final int right = left + mCellWidth - 1;
+            final int bottom = top + mCellHeight - 1;
+
+            // The last key containing a point wins, as in getNearestKeys()
+            // order, so the cell is the last reaching key's if it covers it
+            mInsideStart[c] = insideCount;
+            int last = MIXED;
+            for (int i = 0; i < keyCount; ++i)
+            {
+                if (reaches(i, left, top, right, bottom))
+                {
+                    if (insideCount == inside.length)
+                    {
+                        inside = grow(inside);
+                    }
+                    inside[insideCount++] = i;
+                    last = i;
+                }
+            }
+            if ((last != MIXED) && covers(last, left, top, right, bottom))
+            {
+                // No need to keep what reaches in
+                insideCount = mInsideStart[c];
+                mPrimary[c] = last;
+            }
+            else
+            {
+                mPrimary[c] = MIXED;
+            }
+
+            // Near keys, any whose centre is within the threshold of some
+            // point of the cell
+            mNearStart[c] = nearCount;
+            for (int i = 0; i < keyCount; ++i)
+            {
+                if ((codes[i][0] <= 32) ||
+                    ((distance(i, left, top, right, bottom) >= threshold) &&
+                     !reaches(i, left, top, right, bottom)))
+                {
+                    continue;
+                }
+                if (nearCount == near.length)
+                {
+                    near = grow(near);
+                }
+                near[nearCount++] = i;
+            }
+        }
+        mInsideStart[cells] = insideCount;
+        mNearStart[cells] = nearCount;
+        mInside = new int[insideCount];
+        System.arraycopy(inside, 0, mInside, 0, insideCount);
+        mNear = new int[nearCount];
+        System.arraycopy(near, 0, mNear, 0, nearCount);
+    }
+
+    /**
+     * @param proximity Fall back to the closest near key when the touch is
+     * on none.
+     * @return The index of the key at x, y in keyboard coordinates, or
+     * {@link #NOT_A_KEY}.
+     */
+    public int getKey(int x, int y, boolean proximity)
+    {
+        final int c = cellAt(x, y);
+        if (c < 0)
+        {
+            return NOT_A_KEY;
+        }
+        if (mPrimary[c] != MIXED)
+        {
+            return mPrimary[c];
+        }
+
+        for (int i = mInsideStart[c + 1] - 1; i >= mInsideStart[c]; --i)
+        {
+            if (isInside(mInside[i], x, y))
+            {
+                return mInside[i];
+            }
+        }
+        if (!proximity)
+        {
+            return NOT_A_KEY;
+        }
+
+        // In key order, so ties go to the lowest index as they did
+        int closest = NOT_A_KEY;
+        int closestDist = mThreshold;
+        for (int i = mNearStart[c]; i < mNearStart[c + 1]; ++i)
+        {
+            final int dist = squaredDistanceFrom(mNear[i], x, y);
+            if (dist < closestDist)
+            {
+                closestDist = dist;
+                closest = mNear[i];
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * @return The cell of x, y, or -1 if it is off the keyboard or the
+     * keyboard has no keys.
+     */
+    private int cellAt(int x, int y)
+    {
+        if ((mX.length == 0) || (x < 0) || (y < 0) ||
+            (x >= mKeyboardWidth) || (y >= mKeyboardHeight))
+        {
+            return -1;
+        }
+        return (y / mCellHeight) * mColumns + x / mCellWidth;
+    }
+
+    /**
+     * As Key.isInside(): a key on an edge of the keyboard reaches out past
+     * that edge.
+     */
+    private boolean isInside(int i, int x, int y)
+    {
+        final int flags = mEdgeFlags[i];
+        final boolean leftEdge = (flags & Keyboard.EDGE_LEFT) != 0;
+        final boolean rightEdge = (flags & Keyboard.EDGE_RIGHT) != 0;
+        final boolean topEdge = (flags & Keyboard.EDGE_TOP) != 0;
+        final boolean bottomEdge = (flags & Keyboard.EDGE_BOTTOM) != 0;
+        final int kx = mX[i];
+        final int ky = mY[i];
+        final int kw = mWidth[i];
+        final int kh = mHeight[i];
+        return ((x >= kx) || (leftEdge && (x <= kx + kw))) &&
+            ((x < kx + kw) || (rightEdge && (x >= kx))) &&
+            ((y >= ky) || (topEdge && (y <= ky + kh))) &&
+            ((y < ky + kh) || (bottomEdge && (y >= ky)));
+    }
+
+    /**
+     * As Key.squaredDistanceFrom(), from the key's centre.
+     */
+    private int squaredDistanceFrom(int i, int x, int y)
+    {
+        final int dx = mX[i] + mWidth[i] / 2 - x;
+        final int dy = mY[i] + mHeight[i] / 2 - y;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * @return True if any point of the cell is inside the key, reaching out
+     * past the keyboard edges it is on.
+     */
+    private boolean reaches(int i, int left, int top, int right, int bottom)
+    {
+        final int flags = mEdgeFlags[i];
+        final int kl = ((flags & Keyboard.EDGE_LEFT) != 0) ? Integer.MIN_VALUE
+            : mX[i];
+        final int kr = ((flags & Keyboard.EDGE_RIGHT) != 0) ? Integer.MAX_VALUE
+            : mX[i] + mWidth[i] - 1;
+        final int kt = ((flags & Keyboard.EDGE_TOP) != 0) ? Integer.MIN_VALUE
+            : mY[i];
+        final int kb = ((flags & Keyboard.EDGE_BOTTOM) != 0) ? Integer.MAX_VALUE
+            : mY[i] + mHeight[i] - 1;
+        return (kl <= right) && (kr >= left) && (kt <= bottom) && (kb >= top);
+    }
+
+    /**
+     * @return True if every point of the cell is inside the key, which as
+     * the key's area is a rectangle holds if its corners are.
+     */
+    private boolean covers(int i, int left, int top, int right, int bottom)
+    {
+        return isInside(i, left, top) && isInside(i, right, top) &&
+            isInside(i, left, bottom) && isInside(i, right, bottom);
+    }
+
+    /**
+     * @return The squared distance of the key's centre from the nearest
+     * point of the cell.
+     */
+    private int distance(int i, int left, int top, int right, int bottom)
+    {
+        final int cx = mX[i] + mWidth[i] / 2;
+        final int cy = mY[i] + mHeight[i] / 2;
+        final int dx = (cx < left) ? left - cx : (cx > right) ? cx - right : 0;
+        final int dy = (cy < top) ? top - cy : (cy > bottom) ? cy - bottom : 0;
+        return dx * dx + dy * dy;
+    }
+
+    private static int[] grow(int[] a)
+    {
+        final int[] b = new int[a.length * 2 + 1];
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+
+    private static int[] copyX(Keyboard.Key[] keys)
+    {
+        final int[] a = new int[keys.length];
+        for (int i = 0; i < keys.length; ++i)
+        {
+            a[i] = keys[i].x;
+        }
+        return a;
+    }
+
+    private static int[] copyY(Keyboard.Key[] keys)
+    {
+        final int[] a = new int[keys.length];
+        for (int i = 0; i < keys.length; ++i)
+        {
+            a[i] = keys[i].y;
+        }
+        return a;
+    }
+
+    private static int[] copyWidth(Keyboard.Key[] keys)
+    {
+        final int[] a = new int[keys.length];
+        for (int i = 0; i < keys.length; ++i)
+        {
+            a[i] = keys[i].width;
+        }
+        return a;
+    }
+
+    private static int[] copyHeight(Keyboard.Key[] keys)
+    {
+        final int[] a = new int[keys.length];
+        for (int i = 0; i < keys.length; ++i)
+        {
+            a[i] = keys[i].height;
+        }
+        return a;
+    }
+
+    private static int[] copyEdgeFlags(Keyboard.Key[] keys)
+    {
+        final int[] a = new int[keys.length];
+        for (int i = 0; i < keys.length; ++i)
+        {
+            a[i] = keys[i].edgeFlags;
+        }
+        return a;
+    }
+
+    private static int[][] copyCodes(Keyboard.Key[] keys)
+    {
+        final int[][] a = new int[keys.length][];
+        for (int i = 0; i < keys.length; ++i)
+        {
+            a[i] = keys[i].codes;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger;
+
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.inputmethodservice.Keyboard;
+
+/**
+ * Where every direction label of a keyboard is drawn, worked out once per
+ * keyboard for both shift states. Holds the final strings, already upper
+ * cased for the shifted state, and their integer positions in the view, so
+ * drawing is a walk over arrays with no measuring or allocation.
+ *
+ * The labels of key i are the entries from getStart(i) up to getStart(i + 1).
+ */
+public final class LabelLayout
+{
+    static final public int UNSHIFTED = 0;
+    static final public int SHIFTED = 1;
+
+    // Gap between a label and the key edge, in dips
+    private static final double EDGE_X = 4.0;
+    private static final double EDGE_Y = 2.5;
+
+    private final int[] mStart;
+    // The KEY_INDEX_* direction of each label
+    private final int[] mDirection;
+    private final String[][] mText = new String[2][];
+    private final int[][] mX = new int[2][];
+    private final int[][] mY = new int[2][];
+
+    /**
+     * @param paint Set up with the text size and typeface labels are drawn
+     * with.
+     * @param scale The display's scaled density.
+     * @param left Left padding of the view.
+     * @param top Top padding of the view.
+     */
+    public LabelLayout(LatinKeyboard.LatinKey[] keys, Paint paint,
+                       double scale, int left, int top)
+    {
+        final int keyCount = keys.length;
+        mStart = new int[keyCount + 1];
+        int count = 0;
+        for (int i = 0; i < keyCount; ++i)
+        {
+            mStart[i] = count;
+            for (int j = 0; j < LatinKeyboard.KEY_INDEX_MAX; ++j)
+            {
+                if (keys[i].mDLabels[j] != null)
+                {
+                    ++count;
+                }
+            }
+        }
+        mStart[keyCount] = count;
+        mDirection = new int[count];
+
+        final Rect bounds = new Rect();
+        for (int shift = UNSHIFTED; shift <= SHIFTED; ++shift)
+        {
+            final String[] text = new String[count];
+            final int[] xs = new int[count];
+            final int[] ys = new int[count];
+            int n = 0;
+            for (int i = 0; i < keyCount; ++i)
+            {
+                final LatinKeyboard.LatinKey key = keys[i];
+                for (int j = 0; j < LatinKeyboard.KEY_INDEX_MAX; ++j)
+                {
+                    if (key.mDLabels[j] == null)
+                    {
+                        continue;
+                    }
+                    final String label = adjustCase(key.mDLabels[j],
+                                                    shift == SHIFTED);
+                    paint.getTextBounds(label, 0, label.length(), bounds);
+                    final double w = Math.abs(bounds.left) +
+                        Math.abs(bounds.right);
+                    final double h = Math.abs(bounds.top) +
+                        Math.abs(bounds.bottom);
+                    text[n] = label;
+                    mDirection[n] = j;
+                    xs[n] = left + key.x + (int) Math.round(
+                        labelX(key, j, w, scale) + key.mDOffsets[j][0] * scale);
+                    ys[n] = top + key.y + (int) Math.round(
+                        labelY(key, j, h, scale) + key.mDOffsets[j][1] * scale);
+                    ++n;
+                }
+            }
+            mText[shift] = text;
+            mX[shift] = xs;
+            mY[shift] = ys;
+        }
+    }
+
+    /**
+     * Upper case a short lower case label, as the framework does for the
+     * main key label when shifted.
+     */
+    public static String adjustCase(CharSequence label, boolean shifted)
+    {
+        if (shifted && isCaseSensitive(label))
+        {
+            return label.toString().toUpperCase();
+        }
+        return label.toString();
+    }
+
+    public static boolean isCaseSensitive(CharSequence label)
+    {
+        return (label != null) && (label.length() > 0) &&
+            (label.length() < 3) && Character.isLowerCase(label.charAt(0));
+    }
+
+    /**
+     * Centre of a label of width w, relative to the key.
+     */
+    private static double labelX(Keyboard.Key key, int index, double w,
+                                 double scale)
+    {
+        switch (index)
+        {
+        case LatinKeyboard.KEY_INDEX_UP:
+            return key.width / 4.0 + w / 2.0;
+        case LatinKeyboard.KEY_INDEX_DOWN:
+            return key.width * 3.0 / 4.0 - w / 2.0;
+        case LatinKeyboard.KEY_INDEX_LEFT:
+        case LatinKeyboard.KEY_INDEX_UP_LEFT:
+        case LatinKeyboard.KEY_INDEX_DOWN_LEFT:
+            return EDGE_X * scale + w / 2.0;
+        default:
+            return key.width - EDGE_X * scale - w / 2.0;
+        }
+    }
+
+    /**
+     * Baseline of a label of height h, relative to the key.
+     */
+    private static double labelY(Keyboard.Key key, int index, double h,
+                                 double scale)
+    {
+        switch (index)
+        {
+        case LatinKeyboard.KEY_INDEX_UP:
+            return EDGE_Y * scale + h + h / 2.0;
+        case LatinKeyboard.KEY_INDEX_DOWN:
+            return key.height - EDGE_Y * scale - h / 2.0;
+        case LatinKeyboard.KEY_INDEX_LEFT:
+            return key.height / 2 + h / 2.0;
+        case LatinKeyboard.KEY_INDEX_RIGHT:
+            return key.height / 2.0 + h / 2.0;
+        case LatinKeyboard.KEY_INDEX_UP_LEFT:
+        case LatinKeyboard.KEY_INDEX_UP_RIGHT:
+            return EDGE_Y * scale + h;
+        default:
+            return key.height - EDGE_Y * scale;
+        }
+    }
+
+    public int getStart(int keyIndex)
+    {
+        return mStart[keyIndex];
+    }
+
+    /**
+     * @return The entry of a key's label in the given direction, or -1 if
+     * it has none.
+     */
+    public int find(int keyIndex, int direction)
+    {
+        for (int i = mStart[keyIndex]; i < mStart[keyIndex + 1]; ++i)
+        {
+            if (mDirection[i] == direction)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int size()
+    {
+        return mStart[mStart.length - 1];
+    }
+
+    public String[] getText(int shift)
+    {
+        return mText[shift];
+    }
+
+    public int[] getX(int shift)
+    {
+        return mX[shift];
+    }
+
+    public int[] getY(int shift)
+    {
+        return mY[shift];
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger;
+
+import java.io.PrintWriter;
+
+import org.codepunks.keyflinger.util.LatencyHistogram;
+
+/**
+ * Touch to commit latency, one histogram per kind of gesture that produced
+ * the key. A fling is recorded under its direction, FLING + the
+ * LatinKeyboard KEY_INDEX_* it went in.
+ *
+ * Each key is measured from the event that completes its gesture, as that is
+ * when the key is known: the lift for a tap, fling or chord, and the timer
+ * coming due for a repeat. How long the finger was held is left out, so the
+ * buckets compare. The exceptions are a tap shown at key down with
+ * speculative taps on, which the press commits, and a popup key, whose
+ * touches never reach the service; both are measured from the press.
+ */
+public class LatencyStats
+{
+    static final public int TAP = 0;
+    static final public int FLING = 1;
+    static final public int REPEAT = FLING + LatinKeyboard.KEY_INDEX_MAX;
+    static final public int POPUP = REPEAT + 1;
+    static final public int CHORD = POPUP + 1;
+    static final public int NUM_KINDS = CHORD + 1;
+
+    private final LatencyHistogram[] mHistograms =
+        new LatencyHistogram[NUM_KINDS];
+
+    public LatencyStats()
+    {
+        for (int i = 0; i < NUM_KINDS; ++i)
+        {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public static String getName(int kind)
+    {
+        if (kind == TAP)
+        {
+            return "tap";
+        }
+        else if (kind < REPEAT)
+        {
+            return "fling " + LatinKeyboard.KEY_INDEX_NAMES[kind - FLING];
+        }
+        else if (kind == REPEAT)
+        {
+            return "repeat";
+        }
+        else if (kind == POPUP)
+        {
+            return "popup";
+        }
+        return "chord";
+    }
+
+    /**
+     * @param eventTime Time of the touch event the key came from.
+     * @param now Time of the commit, same time base.
+     */
+    public void record(int kind, long eventTime, long now)
+    {
+        mHistograms[kind].record(now - eventTime);
+    }
+
+    public void reset()
+    {
+        for (int i = 0; i < NUM_KINDS; ++i)
+        {
+            mHistograms[i].reset();
+        }
+    }
+
+    public void dump(PrintWriter pw)
+    {
+        pw.println("Lift to commit latency (ms):");
+        for (int i = 0; i < NUM_KINDS; ++i)
+        {
+            final LatencyHistogram h = mHistograms[i];
+            final long count = h.getCount();
+            if (count == 0)
+            {
+                continue;
+            }
+            pw.println(String.format("  %-16s n=%-6d p50=%-5d p99=%-5d max=%d",
+                                     getName(i), count, h.getPercentile(0.5),
+                                     h.getPercentile(0.99), h.getMax()));
+        }
+    }
+}
@@ -47,15 +47,29 @@ public class LatinKeyboard extends Keyboard
     static final public int KEY_INDEX_DOWN = 1;
     static final public int KEY_INDEX_LEFT = 2;
     static final public int KEY_INDEX_RIGHT = 3;
-    static final public int KEY_INDEX_MAX = 4;
+    static final public int KEY_INDEX_UP_LEFT = 4;
+    static final public int KEY_INDEX_UP_RIGHT = 5;
+    static final public int KEY_INDEX_DOWN_LEFT = 6;
+    static final public int KEY_INDEX_DOWN_RIGHT = 7;
+    static final public int KEY_INDEX_MAX = 8;
+    static final public int KEY_INDEX_STRAIGHT_MAX = 4;
     static final public int KEYCODE_CTL = -10;
     static final public int KEYCODE_ESC = -11;
     static final public int KEYCODE_UNICODE = -20;
+    static final public String TAG_CHORD = "Chord";
+    // Attribute name part of each KEY_INDEX_*
+    static final public String[] KEY_INDEX_NAMES =
+    {
+        "Up", "Down", "Left", "Right",
+        "UpLeft", "UpRight", "DownLeft", "DownRight"
+    };
     private Key mEnterKey;
+    private ChordTable mChords = new ChordTable();
 
     public LatinKeyboard(Context context, int xmlLayoutResId)
     {
         super(context, xmlLayoutResId);
+        loadChords(context.getResources(), xmlLayoutResId);
     }
 
     public LatinKeyboard(Context context, int layoutTemplateResId, 
@@ -117,15 +131,129 @@ public class LatinKeyboard extends Keyboard
         }
     }
 
+    public ChordTable getChords()
+    {
+        return mChords;
+    }
+
+    /**
+     * Read the Chord elements of a layout. Keyboard skips tags it does not
+     * know, so they sit next to the Rows and are picked up in a second pass.
+     */
+    private void loadChords(Resources res, int xmlLayoutResId)
+    {
+        XmlResourceParser parser = res.getXml(xmlLayoutResId);
+        try
+        {
+            int event;
+            while ((event = parser.next()) != XmlResourceParser.END_DOCUMENT)
+            {
+                if ((event == XmlResourceParser.START_TAG) &&
+                    TAG_CHORD.equals(parser.getName()))
+                {
+                    addChord(Xml.asAttributeSet(parser));
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            Log.d(TAG, "Exception: " + e.toString());
+        }
+        finally
+        {
+            parser.close();
+        }
+    }
+
+    /**
+     * A chord looks like:
+     * <Chord keyflinger:gestures="101:tap 105:up" keyflinger:code="8364"/>
+     * Each gesture is the primary code of a key and tap or a direction. If
+     * code is left out, the first character of keyflinger:label is sent.
+     */
+    private void addChord(AttributeSet attrs)
+    {
+        String gestures = attrs.getAttributeValue(LatinKey.XMLNS, "gestures");
+        String label = attrs.getAttributeValue(LatinKey.XMLNS, "label");
+        int code = attrs.getAttributeIntValue(LatinKey.XMLNS, "code",
+                                              KEYCODE_UNICODE);
+        if ((code == KEYCODE_UNICODE) && (label != null) &&
+            (label.length() > 0))
+        {
+            code = (int)label.charAt(0);
+        }
+        if ((gestures == null) || (code == KEYCODE_UNICODE))
+        {
+            Log.d(TAG, "Skipping chord without gestures or code");
+            return;
+        }
+
+        String[] parts = gestures.trim().split("\\s+");
+        if ((parts.length < 2) || (parts.length > ChordTable.MAX_GESTURES))
+        {
+            Log.d(TAG, "Skipping chord: " + gestures);
+            return;
+        }
+        int[] packed = new int[parts.length];
+        for (int i = 0; i < parts.length; ++i)
+        {
+            int colon = parts[i].indexOf(':');
+            int key = -1;
+            int direction = -2;
+            if (colon > 0)
+            {
+                key = findKey(Integer.parseInt(parts[i].substring(0, colon)));
+                direction = parseDirection(parts[i].substring(colon + 1));
+            }
+            if ((key < 0) || (direction < ChordTable.DIRECTION_TAP))
+            {
+                Log.d(TAG, "Skipping chord: " + gestures);
+                return;
+            }
+            packed[i] = ChordTable.gesture(key, direction);
+        }
+        mChords.put(ChordTable.signature(packed, packed.length), code);
+    }
+
+    private int findKey(int code)
+    {
+        java.util.List<Key> keys = getKeys();
+        for (int i = 0; i < keys.size(); ++i)
+        {
+            if (keys.get(i).codes[0] == code)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int parseDirection(String name)
+    {
+        if (name.equalsIgnoreCase("tap"))
+        {
+            return ChordTable.DIRECTION_TAP;
+        }
+        for (int i = 0; i < KEY_INDEX_NAMES.length; ++i)
+        {
+            if (name.equalsIgnoreCase(KEY_INDEX_NAMES[i]))
+            {
+                return i;
+            }
+        }
+        return -2;
+    }
+
     static class LatinKey extends Keyboard.Key
     {
-        public static final int MAX = 4;
+        public static final int MAX = KEY_INDEX_MAX;
         public static final String XMLNS =
             "http://codepunks.org/schemas/android/res/keyflinger";
         public int[] mDCodes;
         public String[] mDLabels;
         public int[][] mDOffsets;
         public boolean mIsRepeatable;
+        public boolean mHasDiagonals;
         
         public LatinKey(Resources res, Keyboard.Row parent, int x, int y,
                         XmlResourceParser parser)
@@ -142,27 +270,7 @@ public class LatinKeyboard extends Keyboard
                     XMLNS, "isRepeatable", false);
                 for (int i = 0; i < MAX; ++i)
                 {
-                    String name;
-                    if (i == KEY_INDEX_UP)
-                    {
-                        name = "Up";
-                    }
-                    else if (i == KEY_INDEX_DOWN)
-                    {
-                        name = "Down";
-                    }
-                    else if (i == KEY_INDEX_RIGHT)
-                    {
-                        name = "Right";
-                    }
-                    else if (i == KEY_INDEX_LEFT)
-                    {
-                        name = "Left";
-                    }
-                    else
-                    {
-                        name = "";
-                    }
+                    String name = KEY_INDEX_NAMES[i];
                     mDCodes[i] = attrs.getAttributeIntValue(
                         XMLNS, String.format("key%sCode", name), -1000);
                     mDLabels[i] = attrs.getAttributeValue(
@@ -171,6 +279,11 @@ public class LatinKeyboard extends Keyboard
                         XMLNS, String.format("key%sXOff", name), 0);
                     mDOffsets[i][1] = attrs.getAttributeIntValue(
                         XMLNS, String.format("key%sYOff", name), 0);
+                    if ((i >= KEY_INDEX_STRAIGHT_MAX) &&
+                        ((mDCodes[i] != -1000) || (mDLabels[i] != null)))
+                    {
+                        mHasDiagonals = true;
+                    }
                 }
             }
             catch (Exception e)
@@ -32,6 +32,7 @@
 package org.codepunks.keyflinger;
 
 import android.content.Context;
+import android.content.res.TypedArray;
 import android.inputmethodservice.Keyboard;
 import android.inputmethodservice.KeyboardView;
 import android.inputmethodservice.Keyboard.Key;
@@ -42,6 +43,7 @@ import android.graphics.PorterDuff;
 import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.graphics.Region.Op;
+import android.graphics.drawable.Drawable;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.WindowManager;
@@ -55,32 +57,102 @@ import java.util.List;
 public class LatinKeyboardView extends KeyboardView
 {
     static final String TAG = "KeyFlinger";
+    // Logging on the touch path, which formats a string per event
+    static final boolean DEBUG = false;
     static final int KEYCODE_OPTIONS = -100;
+    // Most memory the overlay cache may hold, it is also kept to a
+    // sixteenth of the heap
+    static final int OVERLAY_CACHE_BYTES = 4 * 1024 * 1024;
+    // Press feedback, a wash over the pressed key and the color of the label
+    // the stroke is heading for
+    static final int FEEDBACK_KEY_COLOR = 0x40FFFFFF;
+    static final int FEEDBACK_LABEL_COLOR = 0xFF33B5E5;
+
+    // KeyboardView attributes, ascending by id as obtainStyledAttributes()
+    // wants them
+    private static final int[] KEY_ATTRS = {
+        android.R.attr.shadowColor,
+        android.R.attr.shadowRadius,
+        android.R.attr.keyBackground,
+        android.R.attr.keyTextSize,
+        android.R.attr.labelTextSize,
+        android.R.attr.keyTextColor,
+    };
+    private static final int KEY_ATTR_SHADOW_COLOR = 0;
+    private static final int KEY_ATTR_SHADOW_RADIUS = 1;
+    private static final int KEY_ATTR_BACKGROUND = 2;
+    private static final int KEY_ATTR_TEXT_SIZE = 3;
+    private static final int KEY_ATTR_LABEL_TEXT_SIZE = 4;
+    private static final int KEY_ATTR_TEXT_COLOR = 5;
 
     private KeyFlinger mKeyFlinger;
     private KeyFlingDetector mFlingDetector;
-    private int travelX = 10;
-    private int travelY = 10;
+    private ChordRecognizer mChords;
+    private RolloverSequencer mRollover;
+    private FlingClassifier mFlingClassifier = new FlingClassifier(10);
 
     // Copied from android.inputmethodservice.Keyboard
     private static final int NOT_A_KEY = -1000;
     private LatinKeyboard mKeyboard;
     private LatinKeyboard.LatinKey[] mKeys;
     private int mProximityThreshold;
-    private static int MAX_NEARBY_KEYS = 12;
-    private int[] mDistances = new int[MAX_NEARBY_KEYS];
-    private int mDownKey = NOT_A_KEY;
+    // Hit testing for the current keyboard
+    private KeyGrid mKeyGrid;
+    // Key each pointer went down on, by its slot in the detector
+    private int[] mSlotKeys = new int[0];
+    // Slot of the stroke whose tap character is shown speculatively
+    private int mSpeculativeSlot = -1;
     private boolean mKeyboardChanged;
     private boolean mMiniKeyboardOnScreen = false;
     private boolean mDrawPending;
+    // Keys whose labels need redrawing in the buffer, when not all of them
+    private boolean[] mDirtyKeys = new boolean[0];
+    private int mDirtyCount;
+    // Keys with a label that changes case with shift
+    private int[] mCaseKeys = new int[0];
+    private boolean mShifting;
+    private boolean mPopupChanging;
+    // Labels are rendered as an ALPHA_8 mask and tinted when drawn
+    private boolean mMaskOverlay;
+    private Paint mTintPaint;
+    // The keys themselves are drawn into mBuffer too, and the framework's
+    // buffer is never drawn
+    private boolean mSingleBuffer;
+    private Drawable mKeyBackground;
+    private Rect mKeyPadding;
+    private Paint mKeyPaint;
+    private int mKeyTextSize;
+    private int mLabelTextSize;
+    private float mKeyShadowRadius;
+    private int mKeyShadowColor;
+    private float mBackgroundDimAmount;
+    // Keys drawn on, a buffer with any is not worth keeping
+    private boolean[] mDrawnStates = new boolean[0];
+    private int mDrawnStateCount;
     private Bitmap mBuffer;
     private Canvas mCanvas;
+    // What mBuffer holds, the keyboard is null while it is dimmed for a
+    // popup and so not worth keeping
+    private LatinKeyboard mBufferKeyboard;
+    private int mBufferShift;
+    // Overlays of keyboards and shift states not on screen, to switch back
+    // to without rendering
+    private OverlayCache mOverlays;
     private Rect mDrawRect;
-    private Rect mTextRect;
+    // Label strings and positions of the current keyboard
+    private LabelLayout mLabels;
     private Paint mPaint;
     private DisplayMetrics mMetrics;
     private float mShadowRadius;
     private int mShadowColor;
+    // Press feedback drawn over the buffer: the key under the last finger
+    // down and the direction its stroke would fling in so far
+    private int mFeedbackPid = -1;
+    private int mFeedbackKey = NOT_A_KEY;
+    private int mFeedbackDirection = FlingClassifier.NONE;
+    private float mFeedbackDownX;
+    private float mFeedbackDownY;
+    private Paint mFeedbackPaint;
     
     public LatinKeyboardView(Context context, AttributeSet attrs)
     {
@@ -99,14 +171,10 @@ public class LatinKeyboardView extends KeyboardView
         initKeyFlinging();
         setPreviewEnabled(false);
 
-        mPaint = new Paint();
-        mPaint.setAntiAlias(true);
-        mPaint.setTextAlign(Paint.Align.CENTER);
-        mPaint.setTypeface(Typeface.DEFAULT);
-        mPaint.setAlpha(255);
-
         mDrawRect = new Rect();
-        mTextRect = new Rect();
+        mOverlays = new OverlayCache(
+            (int) Math.min(OVERLAY_CACHE_BYTES,
+                           Runtime.getRuntime().maxMemory() / 16));
 
         mMetrics = new DisplayMetrics();
         ((WindowManager)getContext().getSystemService(Context.WINDOW_SERVICE))
@@ -114,6 +182,49 @@ public class LatinKeyboardView extends KeyboardView
 
         mShadowRadius = 3;
         mShadowColor = 0x00000000;
+
+        double tsize = 12.0 * mMetrics.scaledDensity;
+        if (tsize - (int)tsize > 0.0)
+        {
+            tsize = tsize + 1;
+        }
+        Log.d(TAG, String.format("scale=%f tsize=%f", mMetrics.scaledDensity,
+                                 tsize));
+
+        mPaint = new Paint();
+        mPaint.setAntiAlias(true);
+        mPaint.setTextAlign(Paint.Align.CENTER);
+        mPaint.setTypeface(Typeface.DEFAULT);
+        mPaint.setAlpha(255);
+        mPaint.setTextSize((int)tsize);
+        mPaint.setShadowLayer(mShadowRadius, 0, 0, mShadowColor);
+
+        mTintPaint = new Paint();
+        mFeedbackPaint = new Paint(mPaint);
+        mFeedbackPaint.setColor(FEEDBACK_LABEL_COLOR);
+
+        // What the framework would draw the keys with
+        TypedArray a = context.obtainStyledAttributes(
+            attrs, KEY_ATTRS, android.R.attr.keyboardViewStyle, 0);
+        mKeyBackground = a.getDrawable(KEY_ATTR_BACKGROUND);
+        mKeyTextSize = a.getDimensionPixelSize(KEY_ATTR_TEXT_SIZE, 18);
+        mLabelTextSize = a.getDimensionPixelSize(KEY_ATTR_LABEL_TEXT_SIZE, 14);
+        mKeyShadowRadius = a.getFloat(KEY_ATTR_SHADOW_RADIUS, 0f);
+        mKeyShadowColor = a.getColor(KEY_ATTR_SHADOW_COLOR, 0);
+        mKeyPaint = new Paint();
+        mKeyPaint.setAntiAlias(true);
+        mKeyPaint.setTextAlign(Paint.Align.CENTER);
+        mKeyPaint.setColor(a.getColor(KEY_ATTR_TEXT_COLOR, 0xFF000000));
+        a.recycle();
+        mKeyPadding = new Rect();
+        if (mKeyBackground != null)
+        {
+            mKeyBackground.getPadding(mKeyPadding);
+        }
+        a = context.obtainStyledAttributes(
+            new int[] { android.R.attr.backgroundDimAmount });
+        mBackgroundDimAmount = a.getFloat(0, 0.5f);
+        a.recycle();
     }
 
     public void setKeyFlinger(KeyFlinger kf)
@@ -127,13 +238,22 @@ public class LatinKeyboardView extends KeyboardView
             new KeyFlingDetector.FlingListener()
             {
                 @Override
-                public boolean onRepeat(MotionEvent e, int idx, int pid)
+                public boolean onRepeat(KeyFlingDetector.FlingState s,
+                                        int slot, int pid)
                 {
                     Log.d(TAG, "onRepeat");
-                    int code = mKeys[mDownKey].codes[0];
-                    if ((code != NOT_A_KEY) && mKeys[mDownKey].mIsRepeatable)
+                    endSpeculation(slot, true);
+                    final int key = slotKey(slot);
+                    if (key == NOT_A_KEY)
+                    {
+                        return false;
+                    }
+                    int code = mKeys[key].codes[0];
+                    if ((code != NOT_A_KEY) && mKeys[key].mIsRepeatable)
                     {
-                        detectAndSendKey(mDownKey, code);
+                        tagKey(LatencyStats.REPEAT);
+                        detectAndSendKey(key, code);
+                        mKeyFlinger.clearTag();
                         if (code == -2)
                         {
                             return false;
@@ -148,79 +268,319 @@ public class LatinKeyboardView extends KeyboardView
                 }
                 
                 @Override
-                public boolean onFling(KeyFlingDetector.FlingEvent[] evs,
-                                       int idx, int pid)
+                public boolean onDown(MotionEvent e, int slot, int pid)
                 {
-                    Log.d(TAG, String.format("onFling idx=%d pid=%d", idx, pid));
-                    KeyFlingDetector.FlingEvent e = evs[pid];
-                    final float absX = Math.abs(e.velocityX);
-                    final float absY = Math.abs(e.velocityY);
-                    float deltaX = e.up.getX(idx) - e.down.getX(idx);
-                    float deltaY = e.up.getY(idx) - e.down.getY(idx);
-                    int code = NOT_A_KEY;
-                    int index = -1;
-                    if (mDownKey == NOT_A_KEY)
+                    if (mChords.isActive())
                     {
-                        Log.d(TAG, "Passing in onFling. Bad key.");
+                        mChords.onDown(slot);
                         return false;
                     }
-                    if ((absY < absX) && (deltaX > travelX))
+                    mRollover.onDown(slot);
+                    if ((e.getAction() == MotionEvent.ACTION_DOWN) &&
+                        (mKeyFlinger != null))
                     {
-                        mKeyFlinger.flingRight(mKeys[mDownKey]);
-                        index = LatinKeyboard.KEY_INDEX_RIGHT;
+                        final int key = slotKey(slot);
+                        tagKey(LatencyStats.TAP);
+                        if ((key != NOT_A_KEY) && (mKeys[key].text == null) &&
+                            mKeyFlinger.speculate(mKeys[key].codes[0]))
+                        {
+                            mSpeculativeSlot = slot;
+                        }
                     }
-                    else if ((absY < absX) & (deltaX < -travelX))
+                    return false;
+                }
+
+                @Override
+                public boolean onSingleTapUp(MotionEvent e, int slot, int pid)
+                {
+                    if (mChords.isActive())
                     {
-                        mKeyFlinger.flingLeft(mKeys[mDownKey]);
-                        index = LatinKeyboard.KEY_INDEX_LEFT;
+                        mChords.onGesture(slot, slotKey(slot),
+                                          ChordTable.DIRECTION_TAP);
+                        return true;
                     }
-                    else if ((absX < absY) && (deltaY < -travelY))
+                    if (slot == mSpeculativeSlot)
                     {
-                        mKeyFlinger.flingUp(mKeys[mDownKey]);
-                        index = LatinKeyboard.KEY_INDEX_UP;
+                        // Already shown, keep the keyboard from sending it
+                        endSpeculation(slot, true);
+                        return true;
                     }
-                    else if ((absX < absY / 2) && (deltaY > travelY))
+                    if (mRollover.isOverlapped(slot))
                     {
-                        mKeyFlinger.flingDown(mKeys[mDownKey]);
-                        index = LatinKeyboard.KEY_INDEX_DOWN;
+                        // The keyboard only follows one finger, send it in
+                        // press order here instead
+                        mRollover.onGesture(slot, slotKey(slot),
+                                            ChordTable.DIRECTION_TAP);
+                        return true;
                     }
-                    if (index > -1)
+                    return false;
+                }
+
+                @Override
+                public void onLongPress(KeyFlingDetector.FlingState s,
+                                        int slot, int pid)
+                {
+                    endSpeculation(slot, false);
+                }
+
+                @Override
+                public boolean onFling(KeyFlingDetector.FlingEvent[] evs,
+                                       int slot, int pid)
+                {
+                    if (DEBUG)
                     {
-                        code = mKeys[mDownKey].mDCodes[index];
-                        if (code == LatinKeyboard.KEYCODE_UNICODE)
-                        {
-                            code = (int)(char)
-                                mKeys[mDownKey].mDLabels[index].charAt(0);
-                        }
-                        if (code != NOT_A_KEY)
+                        Log.d(TAG, String.format("onFling slot=%d pid=%d",
+                                                 slot, pid));
+                    }
+                    KeyFlingDetector.FlingEvent e = evs[slot];
+                    final int key = slotKey(slot);
+                    if (mChords.isActive())
+                    {
+                        final int index = flingDirection(e, key);
+                        if (index < 0)
                         {
-                            detectAndSendKey(mDownKey, code);
-                            if (code == -2)
-                            {
-                                return false;
-                            }
-                            else
-                            {
-                                return true;
-                            }
+                            return false;
                         }
+                        mChords.onGesture(slot, key, index);
+                        return true;
+                    }
+                    if (key == NOT_A_KEY)
+                    {
+                        Log.d(TAG, "Passing in onFling. Bad key.");
+                        return false;
+                    }
+                    final int index = flingDirection(e, key);
+                    if (index > -1)
+                    {
+                        return mRollover.onGesture(slot, key, index);
                     }
                     Log.d(TAG, "Passing in onFling");
                     return false;
                 }
+
+                @Override
+                public void onUp(MotionEvent e, int slot, int pid)
+                {
+                    // Neither a tap nor a fling, taken back before anything
+                    // held behind it is sent
+                    endSpeculation(slot, false);
+                    if (mChords.isActive())
+                    {
+                        mChords.onUp(slot);
+                    }
+                    else
+                    {
+                        mRollover.onUp(slot);
+                    }
+                }
             });
+
+        mChords = new ChordRecognizer(new ChordRecognizer.Listener()
+            {
+                public void onGesture(int key, int direction)
+                {
+                    sendGesture(key, direction);
+                }
+
+                public void onChord(int code)
+                {
+                    if (DEBUG)
+                    {
+                        Log.d(TAG, String.format("onChord: %d", code));
+                    }
+                    tagKey(LatencyStats.CHORD);
+                    getOnKeyboardActionListener().onKey(code, null);
+                    getOnKeyboardActionListener().onRelease(code);
+                }
+            });
+
+        mRollover = new RolloverSequencer(new RolloverSequencer.Listener()
+            {
+                public boolean onGesture(int slot, int key, int direction)
+                {
+                    return sendGesture(key, direction, slot);
+                }
+            });
+    }
+
+    protected int flingDirection(KeyFlingDetector.FlingEvent e, int keyIndex)
+    {
+        return flingDirection(keyIndex, e.upX - e.downX, e.upY - e.downY,
+                              e.velocityX, e.velocityY);
+    }
+
+    private int flingDirection(int keyIndex, float deltaX, float deltaY,
+                               float velocityX, float velocityY)
+    {
+        final boolean diagonals = (keyIndex != NOT_A_KEY) &&
+            mKeys[keyIndex].mHasDiagonals;
+        int index = mFlingClassifier.classify(deltaX, deltaY, velocityX,
+                                              velocityY, diagonals);
+        if ((index >= LatinKeyboard.KEY_INDEX_STRAIGHT_MAX) &&
+            !hasDirection(mKeys[keyIndex], index))
+        {
+            // Nothing on this corner, take the nearest straight direction
+            index = mFlingClassifier.classify(deltaX, deltaY, velocityX,
+                                              velocityY, false);
+        }
+        return index;
+    }
+
+    private static boolean hasDirection(LatinKeyboard.LatinKey key, int index)
+    {
+        return (key.mDCodes[index] != NOT_A_KEY) ||
+            (key.mDLabels[index] != null);
+    }
+
+    /**
+     * Send the code of a tap ({@link ChordTable#DIRECTION_TAP}) or fling of
+     * the given key.
+     *
+     * @return False if nothing was sent, or the keyboard mode was changed.
+     */
+    protected boolean sendGesture(int keyIndex, int direction)
+    {
+        return sendGesture(keyIndex, direction, -1);
+    }
+
+    /**
+     * As above, for the stroke in the given slot. If that stroke has a
+     * speculative tap character showing, it is replaced.
+     */
+    private boolean sendGesture(int keyIndex, int direction, int slot)
+    {
+        if (keyIndex == NOT_A_KEY)
+        {
+            return false;
+        }
+
+        final LatinKeyboard.LatinKey key = mKeys[keyIndex];
+        final boolean speculating = (slot != -1) && (slot == mSpeculativeSlot);
+        int code;
+        if (direction == ChordTable.DIRECTION_TAP)
+        {
+            tagKey(LatencyStats.TAP);
+            code = key.codes[0];
+        }
+        else
+        {
+            switch (direction)
+            {
+            case LatinKeyboard.KEY_INDEX_RIGHT:
+                mKeyFlinger.flingRight(key);
+                break;
+            case LatinKeyboard.KEY_INDEX_LEFT:
+                mKeyFlinger.flingLeft(key);
+                break;
+            case LatinKeyboard.KEY_INDEX_UP:
+                mKeyFlinger.flingUp(key);
+                break;
+            case LatinKeyboard.KEY_INDEX_DOWN:
+                mKeyFlinger.flingDown(key);
+                break;
+            default:
+                mKeyFlinger.flingDiagonal(key, direction);
+                break;
+            }
+            tagKey(LatencyStats.FLING + direction);
+            code = key.mDCodes[direction];
+            if (code == LatinKeyboard.KEYCODE_UNICODE)
+            {
+                code = (int)(char)key.mDLabels[direction].charAt(0);
+            }
+        }
+        if (speculating)
+        {
+            // Swap the speculative tap for what is sent now in one edit
+            mSpeculativeSlot = -1;
+            mKeyFlinger.rollbackSpeculation(
+                (key.text == null) && (code != NOT_A_KEY) ? code : -1);
+        }
+        if (code != NOT_A_KEY)
+        {
+            detectAndSendKey(keyIndex, code);
+            if (code == -2)
+            {
+                return false;
+            }
+            else
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Make the speculative tap character of the stroke in the given slot
+     * final, or take it back.
+     */
+    private void endSpeculation(int slot, boolean confirm)
+    {
+        if ((slot != mSpeculativeSlot) || (mKeyFlinger == null))
+        {
+            return;
+        }
+        mSpeculativeSlot = -1;
+        if (confirm)
+        {
+            mKeyFlinger.confirmSpeculation();
+        }
+        else
+        {
+            mKeyFlinger.rollbackSpeculation(-1);
+        }
+    }
+
+    /**
+     * Attribute the next commit to the event being dispatched by the
+     * detector.
+     */
+    private void tagKey(int kind)
+    {
+        if (mKeyFlinger != null)
+        {
+            mKeyFlinger.tagKey(kind, mFlingDetector.getDispatchTime());
+        }
+    }
+
+    public boolean isMiniKeyboardOnScreen()
+    {
+        return mMiniKeyboardOnScreen;
+    }
+
+    protected int keyAt(float x, float y)
+    {
+        return getKeyIndex((int) x - getPaddingLeft(),
+                           (int) y + getPaddingTop());
     }
 
     public void onClick(View v)
     {
         mMiniKeyboardOnScreen = false;
-        super.onClick(v);
+        mPopupChanging = true;
+        try
+        {
+            super.onClick(v);
+        }
+        finally
+        {
+            mPopupChanging = false;
+        }
     }
 
     public boolean handleBack()
     {
         mMiniKeyboardOnScreen = false;
-        return super.handleBack();
+        mPopupChanging = true;
+        try
+        {
+            return super.handleBack();
+        }
+        finally
+        {
+            mPopupChanging = false;
+        }
     }
     
     @Override protected boolean onLongPress(Key key)
@@ -239,7 +599,15 @@ public class LatinKeyboardView extends KeyboardView
                 {
                     mMiniKeyboardOnScreen = true;
                 }
-                return super.onLongPress(key);
+                mPopupChanging = true;
+                try
+                {
+                    return super.onLongPress(key);
+                }
+                finally
+                {
+                    mPopupChanging = false;
+                }
             }
         }
         return false;
@@ -248,18 +616,71 @@ public class LatinKeyboardView extends KeyboardView
     @Override public boolean onTouchEvent(MotionEvent e)
     {
         //dumpEvent(e);
+        if (e.getAction() == MotionEvent.ACTION_CANCEL)
+        {
+            mChords.cancel();
+            mRollover.cancel();
+            endSpeculation(mSpeculativeSlot, false);
+        }
+        // Before the detector, which may fire for the new pointer and may
+        // turn the event into a cancel
+        resolvePointerKey(e);
+        trackFeedback(e);
         if (mFlingDetector.onTouchEvent(e))
         {
             Log.d(TAG, "KeyFlingDetector consumed the touch event");
             e.setAction(MotionEvent.ACTION_CANCEL);
         }
-        if (e.getAction() == MotionEvent.ACTION_DOWN)
+        if (mKeyFlinger == null)
         {
-            int touchX = (int) e.getX() - getPaddingLeft();
-            int touchY = (int) e.getY() + getPaddingTop();
-            mDownKey = getKeyIndices(touchX, touchY, null);
+            return super.onTouchEvent(e);
         }
-        return super.onTouchEvent(e);
+        if (e.getAction() == MotionEvent.ACTION_UP)
+        {
+            // A plain tap is sent by the keyboard as it handles the up, and
+            // like every gesture is measured from the event completing it
+            mKeyFlinger.tagKey(LatencyStats.TAP, e.getEventTime());
+        }
+        final boolean handled = super.onTouchEvent(e);
+        mKeyFlinger.clearTag();
+        return handled;
+    }
+
+    /**
+     * Find the key under a pointer going down and keep it in the pointer's
+     * slot, for everything the detector fires for that pointer.
+     */
+    private void resolvePointerKey(MotionEvent e)
+    {
+        final int action = e.getAction();
+        final int code = action & MotionEvent.ACTION_MASK;
+        if ((code != MotionEvent.ACTION_DOWN) &&
+            (code != MotionEvent.ACTION_POINTER_DOWN))
+        {
+            return;
+        }
+        final int idx = action >> MotionEvent.ACTION_POINTER_ID_SHIFT;
+        final int slot = mFlingDetector.acquireSlot(e.getPointerId(idx));
+        if (slot >= mSlotKeys.length)
+        {
+            final int[] keys =
+                new int[Math.max(slot + 1, mFlingDetector.getSlotCapacity())];
+            System.arraycopy(mSlotKeys, 0, keys, 0, mSlotKeys.length);
+            java.util.Arrays.fill(keys, mSlotKeys.length, keys.length,
+                                  NOT_A_KEY);
+            mSlotKeys = keys;
+        }
+        mSlotKeys[slot] = keyAt(e.getX(idx), e.getY(idx));
+    }
+
+    /**
+     * @return The key the pointer in the given slot went down on, or
+     * NOT_A_KEY.
+     */
+    private int slotKey(int slot)
+    {
+        return ((slot >= 0) && (slot < mSlotKeys.length)) ? mSlotKeys[slot]
+            : NOT_A_KEY;
     }
 
     @SuppressWarnings("unused")
@@ -300,83 +721,437 @@ public class LatinKeyboardView extends KeyboardView
     @Override public void onSizeChanged(int w, int h, int oldw, int oldh)
     {
         super.onSizeChanged(w, h, oldw, oldh);
-        // Release the buffer, if any and it will be reallocated on the next draw
+        // Release the buffer, if any and it will be reallocated on the next
+        // draw. No overlay of the old size is any use now.
+        mOverlays.evictAll();
+        if (mBuffer != null)
+        {
+            mBuffer.recycle();
+        }
         mBuffer = null;
+        mCanvas = null;
+        mBufferKeyboard = null;
     }
     
     @Override public void closing()
     {
-        mBuffer = null;
-        mCanvas = null;
+        final Bitmap spare = stashBuffer();
+        if (spare != null)
+        {
+            spare.recycle();
+        }
         mMiniKeyboardOnScreen = false;
         super.closing();
     }
 
+    /**
+     * Give up the overlays kept for other keyboards, when memory is short.
+     */
+    public void trimOverlays()
+    {
+        mOverlays.evictAll();
+    }
+
+    /**
+     * Hand the buffer to the overlay cache, if it holds a whole undimmed
+     * keyboard with no key on and there is room.
+     *
+     * @return The buffer if the cache did not keep it, else null.
+     */
+    private Bitmap stashBuffer()
+    {
+        Bitmap spare = mBuffer;
+        if ((spare != null) && (mBufferKeyboard != null) &&
+            (mDrawnStateCount == 0) &&
+            mOverlays.put(mBufferKeyboard, mBufferShift,
+                          mMetrics.scaledDensity, spare))
+        {
+            spare = null;
+        }
+        mBuffer = null;
+        mCanvas = null;
+        mBufferKeyboard = null;
+        return spare;
+    }
+
+    private void clearDirtyKeys()
+    {
+        for (int i = 0; i < mDirtyKeys.length; i++)
+        {
+            mDirtyKeys[i] = false;
+        }
+        mDirtyCount = 0;
+    }
+
     public void invalidateAllKeys()
     {
+        if (mShifting && !mDrawPending && !mKeyboardChanged &&
+            (mBuffer != null))
+        {
+            // Only letter labels change with shift, and the shift key
+            for (int i = 0; i < mCaseKeys.length; ++i)
+            {
+                invalidateKeyLabels(mCaseKeys[i]);
+            }
+            invalidateKeyLabels(mKeyboard.getShiftKeyIndex());
+            return;
+        }
+        if (mPopupChanging && (isMaskOverlay() || mSingleBuffer) &&
+            !mDrawPending && !mKeyboardChanged && (mBuffer != null))
+        {
+            // The buffer is only dimmed differently as it is drawn
+            super.invalidateAllKeys();
+            return;
+        }
         mDrawPending = true;
         super.invalidateAllKeys();
     }
 
-    protected CharSequence adjustCase(CharSequence label)
+    /**
+     * Redraw the labels of a single key, and have the framework redraw the
+     * key under them.
+     */
+    public void invalidateKeyLabels(int keyIndex)
+    {
+        if ((keyIndex < 0) || (keyIndex >= mDirtyKeys.length))
+        {
+            return;
+        }
+        if (!mDirtyKeys[keyIndex])
+        {
+            mDirtyKeys[keyIndex] = true;
+            ++mDirtyCount;
+        }
+        if (mSingleBuffer)
+        {
+            final Key key = mKeys[keyIndex];
+            final int left = key.x + getPaddingLeft();
+            final int top = key.y + getPaddingTop();
+            invalidate(left, top, left + key.width, top + key.height);
+        }
+        else
+        {
+            super.invalidateKey(keyIndex);
+        }
+    }
+
+    /**
+     * The framework calls this as a key is pressed and released, or turned
+     * on. In single buffer mode presses are left to the feedback layer, and
+     * only a key turned on or off is redrawn in the buffer.
+     */
+    @Override public void invalidateKey(int keyIndex)
     {
-        if (mKeyboard.isShifted() && (label != null) && (label.length() < 3) &&
-            Character.isLowerCase(label.charAt(0)))
+        if (mSingleBuffer)
         {
-            label = label.toString().toUpperCase();
+            if ((keyIndex >= 0) && (keyIndex < mDrawnStates.length) &&
+                (mKeys[keyIndex].on != mDrawnStates[keyIndex]))
+            {
+                invalidateKeyLabels(keyIndex);
+            }
+        }
+        else
+        {
+            super.invalidateKey(keyIndex);
+        }
+    }
+
+    @Override public boolean setShifted(boolean shifted)
+    {
+        mShifting = true;
+        try
+        {
+            return super.setShifted(shifted);
+        }
+        finally
+        {
+            mShifting = false;
         }
-        return label;
     }
 
     @Override public void onDraw(Canvas canvas)
     {
-        super.onDraw(canvas);
-        if (mDrawPending || (mBuffer == null) || mKeyboardChanged)
+        if (!mSingleBuffer)
+        {
+            super.onDraw(canvas);
+        }
+        if (mDrawPending || (mBuffer == null) || mKeyboardChanged ||
+            (mDirtyCount > 0))
         {
             onBufferDraw();
         }
-        canvas.drawBitmap(mBuffer, 0, 0, null);
+        if (mSingleBuffer)
+        {
+            canvas.drawBitmap(mBuffer, 0, 0, null);
+            if (mMiniKeyboardOnScreen)
+            {
+                // As the framework dims the keyboard under a popup
+                mTintPaint.setColor((int) (mBackgroundDimAmount * 0xFF) << 24);
+                canvas.drawRect(0, 0, getWidth(), getHeight(), mTintPaint);
+            }
+        }
+        else if (mMaskOverlay)
+        {
+            mTintPaint.setColor(mMiniKeyboardOnScreen ? 0xAAAAAAAA
+                                : 0xFFFFFFFF);
+            canvas.drawBitmap(mBuffer, 0, 0, mTintPaint);
+        }
+        else
+        {
+            canvas.drawBitmap(mBuffer, 0, 0, null);
+        }
+        drawFeedback(canvas);
+    }
+
+    /**
+     * Follow the last finger down for the feedback layer: the key it went
+     * down on and the direction it would fling in if it lifted now.
+     */
+    private void trackFeedback(MotionEvent e)
+    {
+        final int action = e.getAction();
+        final int idx = action >> MotionEvent.ACTION_POINTER_ID_SHIFT;
+        switch (action & MotionEvent.ACTION_MASK)
+        {
+        case MotionEvent.ACTION_DOWN:
+        case MotionEvent.ACTION_POINTER_DOWN:
+            mFeedbackDownX = e.getX(idx);
+            mFeedbackDownY = e.getY(idx);
+            final int pid = e.getPointerId(idx);
+            setFeedback(pid, slotKey(mFlingDetector.acquireSlot(pid)),
+                        FlingClassifier.NONE);
+            break;
+        case MotionEvent.ACTION_MOVE:
+            final int p = e.findPointerIndex(mFeedbackPid);
+            if ((mFeedbackKey == NOT_A_KEY) || (p < 0))
+            {
+                break;
+            }
+            final float deltaX = e.getX(p) - mFeedbackDownX;
+            final float deltaY = e.getY(p) - mFeedbackDownY;
+            // The travel stands in for the velocity, only its sign matters
+            setFeedback(mFeedbackPid, mFeedbackKey,
+                        flingDirection(mFeedbackKey, deltaX, deltaY, deltaX,
+                                       deltaY));
+            break;
+        case MotionEvent.ACTION_POINTER_UP:
+            if (e.getPointerId(idx) == mFeedbackPid)
+            {
+                setFeedback(-1, NOT_A_KEY, FlingClassifier.NONE);
+            }
+            break;
+        default:
+            setFeedback(-1, NOT_A_KEY, FlingClassifier.NONE);
+            break;
+        }
+    }
+
+    /**
+     * Change what the feedback layer shows, invalidating just the keys it
+     * was and is now drawn over.
+     */
+    private void setFeedback(int pid, int keyIndex, int direction)
+    {
+        mFeedbackPid = pid;
+        if ((keyIndex == mFeedbackKey) && (direction == mFeedbackDirection))
+        {
+            return;
+        }
+        invalidateFeedback();
+        mFeedbackKey = keyIndex;
+        mFeedbackDirection = direction;
+        invalidateFeedback();
+    }
+
+    private void invalidateFeedback()
+    {
+        if ((mFeedbackKey < 0) || (mFeedbackKey >= mKeys.length))
+        {
+            return;
+        }
+        final Key key = mKeys[mFeedbackKey];
+        final int left = key.x + getPaddingLeft();
+        final int top = key.y + getPaddingTop();
+        invalidate(left, top, left + key.width, top + key.height);
+    }
+
+    /**
+     * Draw the feedback layer straight to the screen, over the buffer. The
+     * framework shows presses itself unless in single buffer mode.
+     */
+    private void drawFeedback(Canvas canvas)
+    {
+        if ((mFeedbackKey < 0) || (mFeedbackKey >= mKeys.length) ||
+            mMiniKeyboardOnScreen || (mLabels == null))
+        {
+            return;
+        }
+        if (mSingleBuffer)
+        {
+            final Key key = mKeys[mFeedbackKey];
+            final int left = key.x + getPaddingLeft();
+            final int top = key.y + getPaddingTop();
+            mTintPaint.setColor(FEEDBACK_KEY_COLOR);
+            canvas.drawRect(left, top, left + key.width, top + key.height,
+                            mTintPaint);
+        }
+        if (mFeedbackDirection == FlingClassifier.NONE)
+        {
+            return;
+        }
+        final int label = mLabels.find(mFeedbackKey, mFeedbackDirection);
+        if (label < 0)
+        {
+            return;
+        }
+        final int shift = mKeyboard.isShifted() ? LabelLayout.SHIFTED
+            : LabelLayout.UNSHIFTED;
+        canvas.drawText(mLabels.getText(shift)[label],
+                        mLabels.getX(shift)[label], mLabels.getY(shift)[label],
+                        mFeedbackPaint);
+    }
+
+    /**
+     * Render the labels into an ALPHA_8 mask, a quarter of the memory of the
+     * full color buffer, and tint it as it is drawn. The label shadow is
+     * lost, and dimming for a popup needs no new rendering.
+     */
+    public void setMaskOverlay(boolean enabled)
+    {
+        if (enabled == mMaskOverlay)
+        {
+            return;
+        }
+        mMaskOverlay = enabled;
+        dropBuffers();
+    }
+
+    /**
+     * @return True if labels are rendered as a mask, which single buffer
+     * mode overrides as the keys need color.
+     */
+    private boolean isMaskOverlay()
+    {
+        return mMaskOverlay && !mSingleBuffer;
+    }
+
+    /**
+     * Draw the keys and all their labels into one buffer of our own, and
+     * never have the framework fill its buffer. Halves the bitmap memory
+     * and fill rate of the keyboard.
+     */
+    public void setSingleBuffer(boolean enabled)
+    {
+        if (enabled == mSingleBuffer)
+        {
+            return;
+        }
+        mSingleBuffer = enabled;
+        dropBuffers();
+    }
+
+    /**
+     * Throw away the buffer and every kept overlay, for a change in what
+     * they hold, and redraw.
+     */
+    private void dropBuffers()
+    {
+        mOverlays.evictAll();
+        if (mBuffer != null)
+        {
+            mBuffer.recycle();
+        }
+        mBuffer = null;
+        mCanvas = null;
+        mBufferKeyboard = null;
+        invalidateAllKeys();
     }
 
     protected void onBufferDraw()
     {
         if (mBuffer == null || mKeyboardChanged)
         {
-            if ((mBuffer == null) || mKeyboardChanged &&
-                (mBuffer.getWidth() != getWidth()) ||
-                (mBuffer.getHeight() != getHeight()))
+            mKeyboardChanged = false;
+            final Bitmap spare = stashBuffer();
+            final Bitmap.Config config = isMaskOverlay() ? Bitmap.Config.ALPHA_8
+                : Bitmap.Config.ARGB_8888;
+            if ((mKeyboard != null) &&
+                (isMaskOverlay() || mSingleBuffer || !mMiniKeyboardOnScreen))
+            {
+                final int shift = mKeyboard.isShifted() ? LabelLayout.SHIFTED
+                    : LabelLayout.UNSHIFTED;
+                mBuffer = mOverlays.take(mKeyboard, shift, getWidth(),
+                                         getHeight(), mMetrics.scaledDensity);
+                if (mBuffer != null)
+                {
+                    // Rendered before, nothing to draw
+                    if (spare != null)
+                    {
+                        spare.recycle();
+                    }
+                    mCanvas = new Canvas(mBuffer);
+                    mBufferKeyboard = mKeyboard;
+                    mBufferShift = shift;
+                    mDrawPending = false;
+                    clearDirtyKeys();
+                    // Kept buffers show no key on, redraw any that are now
+                    mDrawnStateCount = 0;
+                    for (int i = 0; i < mDrawnStates.length; i++)
+                    {
+                        mDrawnStates[i] = false;
+                        if (mSingleBuffer && mKeys[i].on)
+                        {
+                            mDirtyKeys[i] = true;
+                            ++mDirtyCount;
+                        }
+                    }
+                    if (mDirtyCount == 0)
+                    {
+                        return;
+                    }
+                }
+            }
+            if (mBuffer == null)
             {
-                mBuffer = Bitmap.createBitmap(getWidth(), getHeight(),
-                                              Bitmap.Config.ARGB_8888);
+                if ((spare != null) && (spare.getWidth() == getWidth()) &&
+                    (spare.getHeight() == getHeight()) &&
+                    (spare.getConfig() == config))
+                {
+                    mBuffer = spare;
+                }
+                else
+                {
+                    if (spare != null)
+                    {
+                        spare.recycle();
+                    }
+                    mBuffer = Bitmap.createBitmap(getWidth(), getHeight(),
+                                                  config);
+                }
                 mCanvas = new Canvas(mBuffer);
+                invalidateAllKeys();
             }
-            invalidateAllKeys();
-            mKeyboardChanged = false;
         }
 
         final Canvas canvas = mCanvas;
-        mDrawRect.set(0, 0, getWidth(), getHeight());
-        canvas.clipRect(mDrawRect, Op.REPLACE);
-        
         if (mKeyboard == null)
         {
+            mDrawRect.set(0, 0, getWidth(), getHeight());
+            canvas.clipRect(mDrawRect, Op.REPLACE);
             return;
         }
-        
+
         final Paint paint = mPaint;
         final Key[] keys = mKeys;
         final int keyCount = keys.length;
-        final double padding = paint.getFontMetrics(null) / 2.0;
-        final double scale = mMetrics.scaledDensity;
-
-        double tsize = 12.0 * scale;
-        if (tsize - (int)tsize > 0.0)
-        {
-            tsize = tsize + 1;
-        }
-        Log.d(TAG, String.format("scale=%f tsize=%f", scale, tsize));
-        paint.setTextSize((int)tsize);
-        if (mMiniKeyboardOnScreen)
+        final LabelLayout labels = mLabels;
+        final int shift = mKeyboard.isShifted() ? LabelLayout.SHIFTED
+            : LabelLayout.UNSHIFTED;
+        // A mask is dimmed by its tint instead, and a single buffer under a
+        // dark rectangle as the framework does
+        final boolean dim = mMiniKeyboardOnScreen && !isMaskOverlay() &&
+            !mSingleBuffer;
+        if (dim)
         {
             paint.setColor(0xAAAAAAAA);
         }
@@ -384,70 +1159,183 @@ public class LatinKeyboardView extends KeyboardView
         {
             paint.setColor(0xFFFFFFFF);
         }
-        canvas.drawColor(0x00000000, PorterDuff.Mode.CLEAR);
+        mBufferKeyboard = dim ? null : mKeyboard;
+        mBufferShift = shift;
 
-        for (int i = 0; i < keyCount; i++)
+        if (!mDrawPending)
         {
-            final LatinKeyboard.LatinKey key = (LatinKeyboard.LatinKey)keys[i];
-            String label = null;
-            double x = 0;
-            double y = 0;
-
-            canvas.translate(key.x + getPaddingLeft(),
-                             key.y + getPaddingTop());
-
-            for (int j = 0; j < LatinKeyboard.KEY_INDEX_MAX; ++j)
+            // Clear and redraw just the dirty keys
+            for (int i = 0; i < keyCount; i++)
             {
-                if (key.mDLabels[j] == null)
+                if (!mDirtyKeys[i])
                 {
                     continue;
                 }
-                
-                label = adjustCase(key.mDLabels[j]).toString();
-                paint.getTextBounds(label, 0, label.length(), mTextRect);
-                double w = Math.abs(mTextRect.left) + Math.abs(mTextRect.right);
-                double h = Math.abs(mTextRect.top) + Math.abs(mTextRect.bottom);
-                double xoff = key.mDOffsets[j][0] * scale;
-                double yoff = key.mDOffsets[j][1] * scale;
-                if (j == LatinKeyboard.KEY_INDEX_UP)
+                final Key key = keys[i];
+                final int left = key.x + getPaddingLeft();
+                final int top = key.y + getPaddingTop();
+                mDrawRect.set(left, top, left + key.width, top + key.height);
+                canvas.clipRect(mDrawRect, Op.REPLACE);
+                canvas.drawColor(0x00000000, PorterDuff.Mode.CLEAR);
+                if (mSingleBuffer)
                 {
-                    x = key.width / 4.0 + w / 2.0 + xoff;
-                    y = 2.5 * scale + h + h / 2.0 + yoff;
+                    drawKey(canvas, i);
                 }
-                else if (j == LatinKeyboard.KEY_INDEX_DOWN)
-                {
-                    x = key.width * 3.0 / 4.0 - w / 2.0 + xoff;
-                    y = key.height - 2.5 * scale - h / 2.0 + yoff;
-                }
-                else if (j == LatinKeyboard.KEY_INDEX_LEFT)
-                {
-                    x = 4.0 * scale + w / 2.0 + xoff;
-                    y = key.height / 2 + h / 2.0 + yoff;
-                }
-                else if (j == LatinKeyboard.KEY_INDEX_RIGHT)
-                {
-                    x = key.width - 4.0 * scale - w / 2.0 + xoff;
-                    y = key.height / 2.0 + h / 2.0 + yoff;
-                }
-                paint.setShadowLayer(mShadowRadius, 0, 0, mShadowColor);
-                canvas.drawText(label, Math.round(x), Math.round(y), paint);
-                paint.setShadowLayer(0, 0, 0, 0);
+                drawLabels(canvas, shift, labels.getStart(i),
+                           labels.getStart(i + 1));
+                mDirtyKeys[i] = false;
             }
+            mDirtyCount = 0;
+            return;
+        }
 
-            canvas.translate(- key.x - getPaddingLeft(),
-                             - key.y - getPaddingTop());
+        mDrawRect.set(0, 0, getWidth(), getHeight());
+        canvas.clipRect(mDrawRect, Op.REPLACE);
+        canvas.drawColor(0x00000000, PorterDuff.Mode.CLEAR);
+        if (mSingleBuffer)
+        {
+            for (int i = 0; i < keyCount; i++)
+            {
+                drawKey(canvas, i);
+            }
         }
+        drawLabels(canvas, shift, 0, labels.size());
+        clearDirtyKeys();
 
         mDrawPending = false;
     }
 
+    /**
+     * Draw a key's background and its main label or icon, as the framework
+     * would into its own buffer.
+     */
+    private void drawKey(Canvas canvas, int keyIndex)
+    {
+        final Key key = mKeys[keyIndex];
+        if (key.on != mDrawnStates[keyIndex])
+        {
+            mDrawnStates[keyIndex] = key.on;
+            mDrawnStateCount += key.on ? 1 : -1;
+        }
+
+        final Rect padding = mKeyPadding;
+        final int left = key.x + getPaddingLeft();
+        final int top = key.y + getPaddingTop();
+        canvas.translate(left, top);
+
+        final Drawable background = mKeyBackground;
+        if (background != null)
+        {
+            // Always drawn released, the feedback layer shows the press
+            final boolean pressed = key.pressed;
+            key.pressed = false;
+            background.setState(key.getCurrentDrawableState());
+            key.pressed = pressed;
+            final Rect bounds = background.getBounds();
+            if ((key.width != bounds.right) || (key.height != bounds.bottom))
+            {
+                background.setBounds(0, 0, key.width, key.height);
+            }
+            background.draw(canvas);
+        }
+
+        if (key.label != null)
+        {
+            final String label =
+                LabelLayout.adjustCase(key.label, mKeyboard.isShifted());
+            final Paint paint = mKeyPaint;
+            if ((label.length() > 1) && (key.codes.length < 2))
+            {
+                paint.setTextSize(mLabelTextSize);
+                paint.setTypeface(Typeface.DEFAULT_BOLD);
+            }
+            else
+            {
+                paint.setTextSize(mKeyTextSize);
+                paint.setTypeface(Typeface.DEFAULT);
+            }
+            paint.setShadowLayer(mKeyShadowRadius, 0, 0, mKeyShadowColor);
+            canvas.drawText(label,
+                            (key.width - padding.left - padding.right) / 2
+                            + padding.left,
+                            (key.height - padding.top - padding.bottom) / 2
+                            + (paint.getTextSize() - paint.descent()) / 2
+                            + padding.top,
+                            paint);
+        }
+        else if (key.icon != null)
+        {
+            final int iconWidth = key.icon.getIntrinsicWidth();
+            final int iconHeight = key.icon.getIntrinsicHeight();
+            final int x = (key.width - padding.left - padding.right
+                           - iconWidth) / 2 + padding.left;
+            final int y = (key.height - padding.top - padding.bottom
+                           - iconHeight) / 2 + padding.top;
+            key.icon.setBounds(x, y, x + iconWidth, y + iconHeight);
+            key.icon.draw(canvas);
+        }
+
+        canvas.translate(-left, -top);
+    }
+
+    /**
+     * Draw labels from up to end of the layout into the buffer, with the
+     * paint already set up for them.
+     */
+    private void drawLabels(Canvas canvas, int shift, int from, int end)
+    {
+        final Paint paint = mPaint;
+        final String[] text = mLabels.getText(shift);
+        final int[] xs = mLabels.getX(shift);
+        final int[] ys = mLabels.getY(shift);
+        for (int i = from; i < end; ++i)
+        {
+            canvas.drawText(text[i], xs[i], ys[i], paint);
+        }
+    }
+
     @Override public void setKeyboard(Keyboard keyboard)
     {
+        // Send the gestures held by a rollover while their key indices are
+        // still into mKeys
+        mRollover.cancel();
         mKeyboard = (LatinKeyboard)keyboard;
         List<Key> keys = mKeyboard.getKeys();
         mKeys = keys.toArray(new LatinKeyboard.LatinKey[keys.size()]);
 
         int length = mKeys.length;
+        mDirtyKeys = new boolean[length];
+        mDirtyCount = 0;
+        if (mDrawnStateCount > 0)
+        {
+            // The buffer shows a key on, it must not come back
+            mBufferKeyboard = null;
+        }
+        mDrawnStates = new boolean[length];
+        mDrawnStateCount = 0;
+        mFeedbackKey = NOT_A_KEY;
+        mFeedbackDirection = FlingClassifier.NONE;
+        java.util.Arrays.fill(mSlotKeys, NOT_A_KEY);
+        int caseCount = 0;
+        int[] caseKeys = new int[length];
+        for (int i = 0; i < length; i++)
+        {
+            final LatinKeyboard.LatinKey key = mKeys[i];
+            boolean sensitive = LabelLayout.isCaseSensitive(key.label);
+            for (int j = 0; !sensitive && (j < LatinKeyboard.KEY_INDEX_MAX); ++j)
+            {
+                sensitive = LabelLayout.isCaseSensitive(key.mDLabels[j]);
+            }
+            if (sensitive)
+            {
+                caseKeys[caseCount++] = i;
+            }
+        }
+        mCaseKeys = new int[caseCount];
+        System.arraycopy(caseKeys, 0, mCaseKeys, 0, caseCount);
+        mLabels = new LabelLayout(mKeys, mPaint, mMetrics.scaledDensity,
+                                  getPaddingLeft(), getPaddingTop());
+
         int dimensionSum = 0;
         for (int i = 0; i < length; i++)
         {
@@ -456,75 +1344,25 @@ public class LatinKeyboardView extends KeyboardView
         }
         if ((dimensionSum < 0) || (length == 0))
         {
+            // Nothing to hit, and the old grid's indices are into old keys
+            mKeyGrid = new KeyGrid(mKeys, 0, 0, 0);
             return;
         }
         mProximityThreshold = (int) (dimensionSum * 1.4f / length);
         mProximityThreshold *= mProximityThreshold; // Square it
+        mKeyGrid = new KeyGrid(mKeys, mKeyboard.getMinWidth(),
+                               mKeyboard.getHeight(), mProximityThreshold);
         mKeyboardChanged = true;
+        mChords.setTable(mKeyboard.getChords());
         super.setKeyboard(keyboard);
     }
     
-    protected int getKeyIndices(int x, int y, int[] allKeys)
+    /**
+     * @return The index of the key at x, y, or NOT_A_KEY.
+     */
+    protected int getKeyIndex(int x, int y)
     {
-        final Key[] keys = mKeys;
-        int closestKey = NOT_A_KEY;
-        int primaryIndex = NOT_A_KEY;
-        int closestKeyDist = mProximityThreshold + 1;
-        java.util.Arrays.fill(mDistances, Integer.MAX_VALUE);
-        int [] nearestKeyIndices = mKeyboard.getNearestKeys(x, y);
-        final int keyCount = nearestKeyIndices.length;
-        for (int i = 0; i < keyCount; i++)
-        {
-            final Key key = keys[nearestKeyIndices[i]];
-            int dist = 0;
-            boolean isInside = key.isInside(x,y);
-            if (((isProximityCorrectionEnabled() &&
-                  ((dist = key.squaredDistanceFrom(x, y)) <
-                   mProximityThreshold)) ||
-                 isInside) &&
-                (key.codes[0] > 32))
-            {
-                // Find insertion point
-                final int nCodes = key.codes.length;
-                if (dist < closestKeyDist)
-                {
-                    closestKeyDist = dist;
-                    closestKey = nearestKeyIndices[i];
-                }
-                
-                if (allKeys == null)
-                {
-                    continue;
-                }
-                
-                for (int j = 0; j < mDistances.length; j++)
-                {
-                    if (mDistances[j] > dist)
-                    {
-                        // Make space for nCodes codes
-                        System.arraycopy(mDistances, j, mDistances, j + nCodes,
-                                         mDistances.length - j - nCodes);
-                        System.arraycopy(allKeys, j, allKeys, j + nCodes,
-                                         allKeys.length - j - nCodes);
-                        for (int c = 0; c < nCodes; c++) {
-                            allKeys[j + c] = key.codes[c];
-                            mDistances[j + c] = dist;
-                        }
-                        break;
-                    }
-                }
-            }
-            
-            if (isInside)
-            {
-                primaryIndex = nearestKeyIndices[i];
-            }
-        }
-        if (primaryIndex == NOT_A_KEY)
-        {
-            primaryIndex = closestKey;
-        }
-        return primaryIndex;
+        return mKeyGrid.getKey(x, y, isProximityCorrectionEnabled());
     }
 
     protected void detectAndSendKey(int index, int code)
@@ -551,4 +1389,24 @@ public class LatinKeyboardView extends KeyboardView
         mFlingDetector.setParams(touchSlop, doubleTapSlop, minFlingVelocity,
                                  longPressEnabled);
     }
+
+    public void setVelocityEstimator(int estimator)
+    {
+        mFlingDetector.setVelocityEstimator(estimator);
+    }
+
+    public void setVelocityHistory(int depth)
+    {
+        mFlingDetector.setVelocityHistory(depth);
+    }
+
+    public void setEarlyFling(boolean enabled)
+    {
+        mFlingDetector.setEarlyFling(enabled);
+    }
+
+    public void setTouchJournal(TouchJournal journal)
+    {
+        mFlingDetector.setTouchJournal(journal);
+    }
 }
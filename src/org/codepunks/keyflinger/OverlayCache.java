@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger;
+
+import android.graphics.Bitmap;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Label overlays already rendered, kept for when their keyboard comes back.
+ * An overlay is keyed by the keyboard it shows, the shift state, its size
+ * and the display density, and the least recently used ones are recycled to
+ * stay within a byte budget. A bitmap taken out with {@link #take} belongs
+ * to the caller until it is put back.
+ */
+public class OverlayCache
+{
+    private static final class Key
+    {
+        final LatinKeyboard mKeyboard;
+        final int mShift;
+        final int mWidth;
+        final int mHeight;
+        final float mDensity;
+
+        Key(LatinKeyboard keyboard, int shift, int width, int height,
+            float density)
+        {
+            mKeyboard = keyboard;
+            mShift = shift;
+            mWidth = width;
+            mHeight = height;
+            mDensity = density;
+        }
+
+        @Override public boolean equals(Object o)
+        {
+            if (!(o instanceof Key))
+            {
+                return false;
+            }
+            final Key k = (Key) o;
+            return (mKeyboard == k.mKeyboard) && (mShift == k.mShift) &&
+                (mWidth == k.mWidth) && (mHeight == k.mHeight) &&
+                (mDensity == k.mDensity);
+        }
+
+        @Override public int hashCode()
+        {
+            int h = System.identityHashCode(mKeyboard);
+            h = h * 31 + mShift;
+            h = h * 31 + mWidth;
+            h = h * 31 + mHeight;
+            return h * 31 + Float.floatToIntBits(mDensity);
+        }
+    }
+
+    private final LinkedHashMap<Key, Bitmap> mEntries =
+        new LinkedHashMap<Key, Bitmap>(8, 0.75f, true);
+    private final int mBudget;
+    private int mBytes;
+
+    /**
+     * @param budget Most bytes of bitmap to keep.
+     */
+    public OverlayCache(int budget)
+    {
+        mBudget = budget;
+    }
+
+    public static int sizeOf(Bitmap bitmap)
+    {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * @return The overlay rendered for the given state, now owned by the
+     * caller, or null.
+     */
+    public Bitmap take(LatinKeyboard keyboard, int shift, int width,
+                       int height, float density)
+    {
+        final Bitmap bitmap =
+            mEntries.remove(new Key(keyboard, shift, width, height, density));
+        if (bitmap != null)
+        {
+            mBytes -= sizeOf(bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Keep an overlay, recycling the least recently used ones if that goes
+     * over budget.
+     *
+     * @return False if the overlay alone is over budget, and so was not
+     * kept and still belongs to the caller.
+     */
+    public boolean put(LatinKeyboard keyboard, int shift, float density,
+                       Bitmap bitmap)
+    {
+        final int size = sizeOf(bitmap);
+        if (size > mBudget)
+        {
+            return false;
+        }
+        final Key key = new Key(keyboard, shift, bitmap.getWidth(),
+                                bitmap.getHeight(), density);
+        final Bitmap old = mEntries.put(key, bitmap);
+        if ((old != null) && (old != bitmap))
+        {
+            mBytes -= sizeOf(old);
+            old.recycle();
+        }
+        mBytes += size;
+        trimTo(mBudget);
+        return true;
+    }
+
+    /**
+     * Recycle the least recently used overlays until at most the given
+     * number of bytes are kept.
+     */
+    public void trimTo(int bytes)
+    {
+        final Iterator<Map.Entry<Key, Bitmap>> it =
+            mEntries.entrySet().iterator();
+        while ((mBytes > bytes) && it.hasNext())
+        {
+            final Bitmap bitmap = it.next().getValue();
+            it.remove();
+            mBytes -= sizeOf(bitmap);
+            bitmap.recycle();
+        }
+    }
+
+    public void evictAll()
+    {
+        trimTo(0);
+    }
+
+    public int getBytes()
+    {
+        return mBytes;
+    }
+
+    public int size()
+    {
+        return mEntries.size();
+    }
+}
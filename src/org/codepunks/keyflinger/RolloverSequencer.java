@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger;
+
+/**
+ * Puts the gestures of fingers that overlap in time back into press order.
+ *
+ * When one thumb goes down before the other has lifted, the second can
+ * finish first. Every finger down joins a queue in press order, and its
+ * gesture is held until every finger pressed before it has finished, by a
+ * gesture or by lifting with none. Then it and everything finished behind
+ * it are reported at once. A finger pressed with nothing pending ahead of
+ * it is reported as it finishes, so lone gestures go straight through.
+ */
+public class RolloverSequencer
+{
+    public interface Listener
+    {
+        /**
+         * @return False if nothing was sent.
+         */
+        boolean onGesture(int slot, int key, int direction);
+    }
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private final Listener mListener;
+
+    // Fingers in press order, from the oldest still pending or held
+    private int[] mSlots = new int[INITIAL_CAPACITY];
+    private int[] mKeys = new int[INITIAL_CAPACITY];
+    private int[] mDirections = new int[INITIAL_CAPACITY];
+    private boolean[] mHasGesture = new boolean[INITIAL_CAPACITY];
+    private boolean[] mFinished = new boolean[INITIAL_CAPACITY];
+    private int mMembers;
+
+    // Per slot, whether its finger is down and whether another finger was
+    // down at any time with it
+    private boolean[] mStillDown = new boolean[INITIAL_CAPACITY];
+    private boolean[] mOverlapped = new boolean[INITIAL_CAPACITY];
+    private int mDown;
+
+    public RolloverSequencer(Listener listener)
+    {
+        mListener = listener;
+    }
+
+    public void onDown(int slot)
+    {
+        ensureSlot(slot);
+        if (mStillDown[slot])
+        {
+            // Never saw it lift, let whatever waits on it go
+            onUp(slot);
+        }
+        mStillDown[slot] = true;
+        mOverlapped[slot] = mDown > 0;
+        if (mDown > 0)
+        {
+            for (int i = 0; i < mStillDown.length; ++i)
+            {
+                if (mStillDown[i])
+                {
+                    mOverlapped[i] = true;
+                }
+            }
+        }
+        ++mDown;
+
+        if (mMembers == mSlots.length)
+        {
+            grow();
+        }
+        final int m = mMembers++;
+        mSlots[m] = slot;
+        mHasGesture[m] = false;
+        mFinished[m] = false;
+    }
+
+    /**
+     * Report the gesture of the finger in the given slot now, or once every
+     * finger pressed before it has finished.
+     *
+     * @return What the listener returned if it was reported now, true if it
+     * is held.
+     */
+    public boolean onGesture(int slot, int key, int direction)
+    {
+        final int m = findPending(slot);
+        if (m < 0)
+        {
+            return mListener.onGesture(slot, key, direction);
+        }
+        mKeys[m] = key;
+        mDirections[m] = direction;
+        mHasGesture[m] = true;
+        mFinished[m] = true;
+        if (m > 0)
+        {
+            return true;
+        }
+        return flush();
+    }
+
+    public void onUp(int slot)
+    {
+        if ((slot >= mStillDown.length) || !mStillDown[slot])
+        {
+            return;
+        }
+        mStillDown[slot] = false;
+        --mDown;
+        final int m = findPending(slot);
+        if (m < 0)
+        {
+            return;
+        }
+        mFinished[m] = true;
+        if (m == 0)
+        {
+            flush();
+        }
+    }
+
+    /**
+     * @return True if another finger was down at some point while the one
+     * in the given slot was.
+     */
+    public boolean isOverlapped(int slot)
+    {
+        return (slot < mOverlapped.length) && mOverlapped[slot];
+    }
+
+    /**
+     * Report the gestures already made, in press order, even those held
+     * behind a finger that has not finished, then forget every finger. Only
+     * the fingers that had not finished are dropped.
+     */
+    public void cancel()
+    {
+        // Reported members are marked first, as the listener may change
+        // keyboards and so cancel again
+        for (int m = 0; m < mMembers; ++m)
+        {
+            if (mFinished[m] && mHasGesture[m])
+            {
+                mHasGesture[m] = false;
+                mListener.onGesture(mSlots[m], mKeys[m], mDirections[m]);
+            }
+        }
+        mMembers = 0;
+        mDown = 0;
+        java.util.Arrays.fill(mStillDown, false);
+        java.util.Arrays.fill(mOverlapped, false);
+    }
+
+    private int findPending(int slot)
+    {
+        for (int m = 0; m < mMembers; ++m)
+        {
+            if ((mSlots[m] == slot) && !mFinished[m])
+            {
+                return m;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Report and drop the finished fingers at the front of the queue.
+     *
+     * @return What the listener returned for the first of them with a
+     * gesture, or false if none had one.
+     */
+    private boolean flush()
+    {
+        boolean first = true;
+        boolean handled = false;
+        int done = 0;
+        while ((done < mMembers) && mFinished[done])
+        {
+            if (mHasGesture[done])
+            {
+                // The listener may change keyboards and so cancel, which
+                // must not report this one again
+                mHasGesture[done] = false;
+                final int members = mMembers;
+                final boolean sent = mListener.onGesture(mSlots[done],
+                                                         mKeys[done],
+                                                         mDirections[done]);
+                if (first)
+                {
+                    handled = sent;
+                    first = false;
+                }
+                if (mMembers != members)
+                {
+                    return handled;
+                }
+            }
+            ++done;
+        }
+        System.arraycopy(mSlots, done, mSlots, 0, mMembers - done);
+        System.arraycopy(mKeys, done, mKeys, 0, mMembers - done);
+        System.arraycopy(mDirections, done, mDirections, 0, mMembers - done);
+        System.arraycopy(mHasGesture, done, mHasGesture, 0, mMembers - done);
+        System.arraycopy(mFinished, done, mFinished, 0, mMembers - done);
+        mMembers -= done;
+        return handled;
+    }
+
+    private void grow()
+    {
+        final int length = mSlots.length * 2;
+        int[] slots = new int[length];
+        int[] keys = new int[length];
+        int[] directions = new int[length];
+        boolean[] hasGesture = new boolean[length];
+        boolean[] finished = new boolean[length];
+        System.arraycopy(mSlots, 0, slots, 0, mMembers);
+        System.arraycopy(mKeys, 0, keys, 0, mMembers);
+        System.arraycopy(mDirections, 0, directions, 0, mMembers);
+        System.arraycopy(mHasGesture, 0, hasGesture, 0, mMembers);
+        System.arraycopy(mFinished, 0, finished, 0, mMembers);
+        mSlots = slots;
+        mKeys = keys;
+        mDirections = directions;
+        mHasGesture = hasGesture;
+        mFinished = finished;
+    }
+
+    private void ensureSlot(int slot)
+    {
+        if (slot < mStillDown.length)
+        {
+            return;
+        }
+        final int length = Math.max(slot + 1, mStillDown.length * 2);
+        boolean[] stillDown = new boolean[length];
+        boolean[] overlapped = new boolean[length];
+        System.arraycopy(mStillDown, 0, stillDown, 0, mStillDown.length);
+        System.arraycopy(mOverlapped, 0, overlapped, 0, mOverlapped.length);
+        mStillDown = stillDown;
+        mOverlapped = overlapped;
+    }
+}
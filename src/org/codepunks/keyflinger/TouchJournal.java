@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Ring buffer of the touch input seen by {@link KeyFlingEngine}, in the order
+ * it was fed, so a stroke can be played back through {@link TouchReplayer}.
+ *
+ * Every record is {@link #RECORD_SIZE} bytes, big endian:
+ * <pre>
+ *   0  byte   kind, a KeyFlingEngine ACTION_* or {@link #KIND_SAMPLE}
+ *   1  byte   reserved, 0
+ *   2  short  pointer id
+ *   4  long   event time
+ *  12  float  x
+ *  16  float  y
+ * </pre>
+ * A sample is a position fed to the velocity tracker, historical or current.
+ * An action is the event itself. Records are written into a byte array
+ * allocated up front, overwriting the oldest once it is full, so recording
+ * costs a few array stores per sample and never allocates.
+ *
+ * A journal is not thread safe. It is recorded into on the UI thread, and
+ * anything else wanting to read it takes a {@link #copy} there.
+ *
+ * The stream written by {@link #writeTo} is a header of magic, version,
+ * record size and record count, followed by the records oldest first.
+ */
+public class TouchJournal
+{
+    public static final int RECORD_SIZE = 20;
+    public static final int KIND_SAMPLE = 0x7f;
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final int MAGIC = 0x4b46544a; // "KFTJ"
+    private static final int VERSION = 1;
+
+    private final byte[] mRecords;
+    private final int mCapacity;
+    // Index of the oldest record
+    private int mHead;
+    private int mSize;
+    // Records written since the last clear, including overwritten ones
+    private long mWritten;
+
+    public TouchJournal()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TouchJournal(int capacity)
+    {
+        if (capacity <= 0)
+        {
+            throw new IllegalArgumentException("The capacity must be > 0");
+        }
+        mCapacity = capacity;
+        mRecords = new byte[capacity * RECORD_SIZE];
+    }
+
+    public void recordSample(int pid, float x, float y, long time)
+    {
+        put(KIND_SAMPLE, pid, x, y, time);
+    }
+
+    public void recordAction(int action, int pid, float x, float y, long time)
+    {
+        put(action, pid, x, y, time);
+    }
+
+    /**
+     * @return A copy of the journal as it is now, for another thread to read
+     * or write out while this one goes on recording.
+     */
+    public TouchJournal copy()
+    {
+        TouchJournal copy = new TouchJournal(mCapacity);
+        System.arraycopy(mRecords, 0, copy.mRecords, 0, mRecords.length);
+        copy.mHead = mHead;
+        copy.mSize = mSize;
+        copy.mWritten = mWritten;
+        return copy;
+    }
+
+    public void clear()
+    {
+        mHead = 0;
+        mSize = 0;
+        mWritten = 0;
+    }
+
+    /**
+     * @return The number of records held, at most the capacity.
+     */
+    public int size()
+    {
+        return mSize;
+    }
+
+    public int getCapacity()
+    {
+        return mCapacity;
+    }
+
+    /**
+     * @return The number of records lost to the ring wrapping.
+     */
+    public long getDropped()
+    {
+        return mWritten - mSize;
+    }
+
+    // Accessors for record i, 0 being the oldest
+
+    public int getKind(int i)
+    {
+        return mRecords[offset(i)] & 0xff;
+    }
+
+    public int getPointerId(int i)
+    {
+        final int o = offset(i) + 2;
+        return ((mRecords[o] & 0xff) << 8) | (mRecords[o + 1] & 0xff);
+    }
+
+    public long getTime(int i)
+    {
+        final int o = offset(i) + 4;
+        return ((long)getInt(o) << 32) | (getInt(o + 4) & 0xffffffffL);
+    }
+
+    public float getX(int i)
+    {
+        return Float.intBitsToFloat(getInt(offset(i) + 12));
+    }
+
+    public float getY(int i)
+    {
+        return Float.intBitsToFloat(getInt(offset(i) + 16));
+    }
+
+    public void writeTo(OutputStream out) throws IOException
+    {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(RECORD_SIZE);
+        data.writeInt(mSize);
+        final int first = Math.min(mSize, mCapacity - mHead);
+        data.write(mRecords, mHead * RECORD_SIZE, first * RECORD_SIZE);
+        data.write(mRecords, 0, (mSize - first) * RECORD_SIZE);
+        data.flush();
+    }
+
+    public static TouchJournal readFrom(InputStream in) throws IOException
+    {
+        DataInputStream data = new DataInputStream(in);
+        if ((data.readInt() != MAGIC) || (data.readInt() != VERSION) ||
+            (data.readInt() != RECORD_SIZE))
+        {
+            throw new IOException("Not a touch journal");
+        }
+        final int size = data.readInt();
+        TouchJournal journal = new TouchJournal(Math.max(size, 1));
+        data.readFully(journal.mRecords, 0, size * RECORD_SIZE);
+        journal.mSize = size;
+        journal.mWritten = size;
+        return journal;
+    }
+
+    private void put(int kind, int pid, float x, float y, long time)
+    {
+        int slot = mHead + mSize;
+        if (slot >= mCapacity)
+        {
+            slot -= mCapacity;
+        }
+        if (mSize == mCapacity)
+        {
+            // Full, overwrite the oldest
+            mHead = (mHead + 1 == mCapacity) ? 0 : mHead + 1;
+        }
+        else
+        {
+            ++mSize;
+        }
+        ++mWritten;
+
+        final byte[] r = mRecords;
+        final int o = slot * RECORD_SIZE;
+        r[o] = (byte)kind;
+        r[o + 1] = 0;
+        r[o + 2] = (byte)(pid >> 8);
+        r[o + 3] = (byte)pid;
+        putInt(o + 4, (int)(time >> 32));
+        putInt(o + 8, (int)time);
+        putInt(o + 12, Float.floatToIntBits(x));
+        putInt(o + 16, Float.floatToIntBits(y));
+    }
+
+    private int offset(int i)
+    {
+        if ((i < 0) || (i >= mSize))
+        {
+            throw new IndexOutOfBoundsException("Record " + i);
+        }
+        int slot = mHead + i;
+        if (slot >= mCapacity)
+        {
+            slot -= mCapacity;
+        }
+        return slot * RECORD_SIZE;
+    }
+
+    private void putInt(int o, int v)
+    {
+        final byte[] r = mRecords;
+        r[o] = (byte)(v >> 24);
+        r[o + 1] = (byte)(v >> 16);
+        r[o + 2] = (byte)(v >> 8);
+        r[o + 3] = (byte)v;
+    }
+
+    private int getInt(int o)
+    {
+        final byte[] r = mRecords;
+        return ((r[o] & 0xff) << 24) | ((r[o + 1] & 0xff) << 16) |
+            ((r[o + 2] & 0xff) << 8) | (r[o + 3] & 0xff);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger;
+
+/**
+ * Plays a {@link TouchJournal} back through a {@link KeyFlingEngine} on a
+ * virtual clock. Before each record, every timer due by the record's time is
+ * fired at its own deadline, so show press, long press, repeat and tap
+ * confirmation happen exactly where they would have on the device, however
+ * fast the replay runs. Does not need android, so a recorded complaint can be
+ * reproduced under a plain JVM.
+ */
+public class TouchReplayer implements KeyFlingEngine.Scheduler
+{
+    private final KeyFlingEngine mEngine;
+    private long mNow;
+
+    public TouchReplayer(KeyFlingEngine.Listener listener)
+    {
+        mEngine = new KeyFlingEngine(listener, this);
+    }
+
+    /**
+     * @return The engine being driven, to configure it the way the
+     * recording device had it before calling {@link #replay}.
+     */
+    public KeyFlingEngine getEngine()
+    {
+        return mEngine;
+    }
+
+    /**
+     * @return The virtual time, the time of the last record or timer played.
+     */
+    public long getTime()
+    {
+        return mNow;
+    }
+
+    public void wakeAt(long when)
+    {
+        // The engine is polled for its next deadline instead
+    }
+
+    public void replay(TouchJournal journal)
+    {
+        final int size = journal.size();
+        for (int i = 0; i < size; ++i)
+        {
+            replay(journal, i);
+        }
+    }
+
+    /**
+     * Play the single record i of the journal, after any timers due before
+     * it.
+     *
+     * @return What the engine returned for an action, false for a sample.
+     */
+    public boolean replay(TouchJournal journal, int i)
+    {
+        final long time = journal.getTime(i);
+        advanceTo(time);
+        final int kind = journal.getKind(i);
+        final int pid = journal.getPointerId(i);
+        if (kind == TouchJournal.KIND_SAMPLE)
+        {
+            mEngine.addMovement(pid, journal.getX(i), journal.getY(i), time);
+            return false;
+        }
+        return mEngine.onTouchEvent(kind, pid, journal.getX(i),
+                                    journal.getY(i), time);
+    }
+
+    /**
+     * Fire every timer due by the given time, then move the clock there.
+     */
+    public void advanceTo(long time)
+    {
+        long deadline;
+        while ((deadline = mEngine.getNextDeadline()) <= time)
+        {
+            mNow = deadline;
+            mEngine.onTimer(deadline);
+        }
+        if (time > mNow)
+        {
+            mNow = time;
+        }
+    }
+}
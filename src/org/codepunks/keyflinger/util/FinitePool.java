@@ -41,25 +41,36 @@ class FinitePool<T extends Poolable<T>> implements Pool<T> {
      * Number of objects in the pool
      */
     private int mPoolCount;
+    /**
+     * Where to count what the pool does, or null
+     */
+    private final PoolStats mStats;
 
     FinitePool(PoolableManager<T> manager) {
         mManager = manager;
         mLimit = 0;
         mInfinite = true;
+        mStats = null;
     }
 
     FinitePool(PoolableManager<T> manager, int limit) {
+        this(manager, limit, null);
+    }
+
+    FinitePool(PoolableManager<T> manager, int limit, PoolStats stats) {
         if (limit <= 0) throw new IllegalArgumentException("The pool limit must be > 0");
 
         mManager = manager;
         mLimit = limit;
         mInfinite = false;
+        mStats = stats;
     }
 
     public T acquire() {
         T element;
+        final boolean hit = mRoot != null;
 
-        if (mRoot != null) {
+        if (hit) {
             element = mRoot;
             mRoot = element.getNextPoolable();
             mPoolCount--;
@@ -70,17 +81,24 @@ class FinitePool<T extends Poolable<T>> implements Pool<T> {
         if (element != null) {
             element.setNextPoolable(null);
             mManager.onAcquired(element);            
+            if (mStats != null) {
+                mStats.onAcquire(element, hit);
+            }
         }
 
         return element;
     }
 
     public void release(T element) {
-        if (mInfinite || mPoolCount < mLimit) {
+        final boolean kept = mInfinite || mPoolCount < mLimit;
+        if (kept) {
             mPoolCount++;
             element.setNextPoolable(mRoot);
             mRoot = element;
         }
         mManager.onReleased(element);
+        if (mStats != null) {
+            mStats.onRelease(element, !kept);
+        }
     }
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Histogram of latencies in milliseconds over fixed buckets, a millisecond
+ * wide at the low end and growing to a quarter of their value past 8ms.
+ * Recording is a bucket search and two atomic updates, so it never allocates
+ * or locks and can be read from another thread while being written. A
+ * percentile is reported as the lower bound of the bucket it falls in, which
+ * is exact below 8ms as latencies are whole milliseconds.
+ */
+public final class LatencyHistogram {
+    // Bucket i counts latencies below BOUNDS[i] and at or above BOUNDS[i - 1],
+    // one more bucket past the end counts everything larger
+    private static final int[] BOUNDS = {
+        1, 2, 3, 4, 5, 6, 7, 8, 10, 12, 14, 16, 20, 24, 28, 32, 40, 48, 56, 64,
+        80, 96, 112, 128, 160, 192, 224, 256, 320, 384, 448, 512, 640, 768, 896,
+        1024, 2048
+    };
+
+    private final AtomicIntegerArray mCounts = new AtomicIntegerArray(BOUNDS.length + 1);
+    private final AtomicLong mMax = new AtomicLong();
+
+    public void record(long millis) {
+        if (millis < 0) {
+            millis = 0;
+        }
+        int bucket = 0;
+        while (bucket < BOUNDS.length && millis >= BOUNDS[bucket]) {
+            bucket++;
+        }
+        mCounts.incrementAndGet(bucket);
+
+        long max = mMax.get();
+        while (millis > max && !mMax.compareAndSet(max, millis)) {
+            max = mMax.get();
+        }
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < mCounts.length(); i++) {
+            count += mCounts.get(i);
+        }
+        return count;
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * @param fraction Between 0 and 1, 0.5 for the median.
+     * @return The lower bound of the bucket holding the given fraction of
+     * the recorded latencies, the maximum if that is the overflow bucket, or
+     * 0 if nothing was recorded.
+     */
+    public long getPercentile(double fraction) {
+        final long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(count * fraction));
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank) {
+                return i == 0 ? 0 : BOUNDS[i - 1];
+            }
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i = 0; i < mCounts.length(); i++) {
+            mCounts.set(i, 0);
+        }
+        mMax.set(0);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A pool any thread can use without taking a lock: a Treiber stack, pushed
+ * and popped with a compare-and-set of its top.  The stack is built of its
+ * own nodes rather than the elements' poolable links, a new one for each
+ * release, so an element acquired and released again while another thread
+ * is popping can never be mistaken for the top it read (the ABA problem).
+ *
+ * @hide
+ */
+class LockFreePool<T extends Poolable<T>> implements Pool<T> {
+    private static final class Node<T> {
+        final T mElement;
+        Node<T> mNext;
+
+        Node(T element) {
+            mElement = element;
+        }
+    }
+
+    private final PoolableManager<T> mManager;
+    private final int mLimit;
+    private final AtomicReference<Node<T>> mTop = new AtomicReference<Node<T>>();
+    /**
+     * Number of objects in the pool, or reserved to go into it
+     */
+    private final AtomicInteger mPoolCount = new AtomicInteger();
+    /**
+     * Where to count what the pool does, or null
+     */
+    private final PoolStats mStats;
+
+    LockFreePool(PoolableManager<T> manager, int limit, PoolStats stats) {
+        if (limit <= 0) throw new IllegalArgumentException("The pool limit must be > 0");
+
+        mManager = manager;
+        mLimit = limit;
+        mStats = stats;
+    }
+
+    public T acquire() {
+        T element = null;
+        Node<T> top;
+        do {
+            top = mTop.get();
+        } while (top != null && !mTop.compareAndSet(top, top.mNext));
+
+        if (top != null) {
+            mPoolCount.decrementAndGet();
+            element = top.mElement;
+        } else {
+            element = mManager.newInstance();
+        }
+
+        if (element != null) {
+            element.setNextPoolable(null);
+            mManager.onAcquired(element);
+            if (mStats != null) {
+                mStats.onAcquire(element, top != null);
+            }
+        }
+
+        return element;
+    }
+
+    public void release(T element) {
+        // Before it is pushed, when another thread may take it at once
+        mManager.onReleased(element);
+        final boolean kept = mPoolCount.incrementAndGet() <= mLimit;
+        if (mStats != null) {
+            mStats.onRelease(element, !kept);
+        }
+        if (kept) {
+            final Node<T> node = new Node<T>(element);
+            Node<T> top;
+            do {
+                top = mTop.get();
+                node.mNext = top;
+            } while (!mTop.compareAndSet(top, node));
+        } else {
+            mPoolCount.decrementAndGet();
+        }
+    }
+}
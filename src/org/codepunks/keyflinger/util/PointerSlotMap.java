@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger.util;
+
+/**
+ * Maps sparse pointer ids onto a compact range of slots, so per-pointer state
+ * can live in plain arrays indexed by slot. A new pointer takes the lowest
+ * free slot. Both tables only grow when a higher pointer id or more
+ * simultaneous pointers than ever before show up; lookups never allocate.
+ */
+public final class PointerSlotMap {
+    public static final int NO_SLOT = -1;
+    public static final int NO_ID = -1;
+
+    private int[] mSlotForId;
+    private int[] mIdForSlot;
+    private int mCount;
+
+    public PointerSlotMap(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("The capacity must be > 0");
+
+        mSlotForId = new int[capacity];
+        mIdForSlot = new int[capacity];
+        java.util.Arrays.fill(mSlotForId, NO_SLOT);
+        java.util.Arrays.fill(mIdForSlot, NO_ID);
+    }
+
+    /**
+     * @return The slot of the given pointer id, or {@link #NO_SLOT} if it is
+     * not down.
+     */
+    public int get(int id) {
+        if (id < 0 || id >= mSlotForId.length) {
+            return NO_SLOT;
+        }
+        return mSlotForId[id];
+    }
+
+    /**
+     * Return the slot of the given pointer id, assigning the lowest free slot
+     * if it does not have one yet.
+     */
+    public int acquire(int id) {
+        int slot = get(id);
+        if (slot != NO_SLOT) {
+            return slot;
+        }
+
+        if (id >= mSlotForId.length) {
+            mSlotForId = grow(mSlotForId, Math.max(id + 1, mSlotForId.length * 2), NO_SLOT);
+        }
+        final int[] idForSlot = mIdForSlot;
+        slot = 0;
+        while (slot < idForSlot.length && idForSlot[slot] != NO_ID) {
+            slot++;
+        }
+        if (slot == idForSlot.length) {
+            mIdForSlot = grow(idForSlot, idForSlot.length * 2, NO_ID);
+        }
+        mIdForSlot[slot] = id;
+        mSlotForId[id] = slot;
+        mCount++;
+        return slot;
+    }
+
+    public void release(int id) {
+        final int slot = get(id);
+        if (slot != NO_SLOT) {
+            mSlotForId[id] = NO_SLOT;
+            mIdForSlot[slot] = NO_ID;
+            mCount--;
+        }
+    }
+
+    public void clear() {
+        java.util.Arrays.fill(mSlotForId, NO_SLOT);
+        java.util.Arrays.fill(mIdForSlot, NO_ID);
+        mCount = 0;
+    }
+
+    /**
+     * @return The pointer id holding the given slot, or {@link #NO_ID}.
+     */
+    public int getId(int slot) {
+        return mIdForSlot[slot];
+    }
+
+    /**
+     * @return The number of pointers currently holding a slot.
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * @return The number of slots, every slot index is below this.
+     */
+    public int getCapacity() {
+        return mIdForSlot.length;
+    }
+
+    private static int[] grow(int[] array, int length, int fill) {
+        final int[] grown = new int[length];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        java.util.Arrays.fill(grown, array.length, length, fill);
+        return grown;
+    }
+}
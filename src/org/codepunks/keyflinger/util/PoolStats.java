@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger.util;
+
+import java.io.PrintWriter;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What a pool has been doing: how often an acquire found an object waiting
+ * (a hit) or had to make one (a miss), how many releases were dropped for
+ * the pool being full, and how many objects are out at once.  Get one from
+ * {@link Pools#stats} so it shows in {@link Pools#dumpStats}.
+ *
+ * With a leak threshold set, every acquired object is also remembered
+ * until released, and one still out after that many more operations on the
+ * pool is counted as a leak and handed to the {@link LeakListener}, if any.
+ * This costs a map update per operation, so it is off unless asked for.
+ *
+ * @hide
+ */
+public final class PoolStats {
+    public interface LeakListener {
+        /**
+         * An object has been out for the leak threshold.  Called on the
+         * thread that used the pool, with the stats locked, so keep it short.
+         */
+        void onLeak(PoolStats stats, Object element, int ops);
+    }
+
+    private final String mName;
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mReleases = new AtomicLong();
+    private final AtomicLong mDrops = new AtomicLong();
+    private final AtomicInteger mOutstanding = new AtomicInteger();
+    private final AtomicInteger mHighWater = new AtomicInteger();
+
+    // Leak detection, all under the lock of mAcquiredAt
+    private final IdentityHashMap<Object, Long> mAcquiredAt =
+            new IdentityHashMap<Object, Long>();
+    private volatile int mLeakThreshold;
+    private LeakListener mLeakListener;
+    private long mOps;
+    private long mLeaks;
+
+    PoolStats(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @param ops Flag an object still out this many operations on the pool
+     * after it was acquired, or 0 to stop looking for leaks.
+     */
+    public void setLeakThreshold(int ops) {
+        synchronized (mAcquiredAt) {
+            mLeakThreshold = ops;
+            if (ops <= 0) {
+                mAcquiredAt.clear();
+            }
+        }
+    }
+
+    public int getLeakThreshold() {
+        return mLeakThreshold;
+    }
+
+    public void setLeakListener(LeakListener listener) {
+        synchronized (mAcquiredAt) {
+            mLeakListener = listener;
+        }
+    }
+
+    void onAcquire(Object element, boolean hit) {
+        (hit ? mHits : mMisses).incrementAndGet();
+        final int outstanding = mOutstanding.incrementAndGet();
+        int high = mHighWater.get();
+        while (outstanding > high && !mHighWater.compareAndSet(high, outstanding)) {
+            high = mHighWater.get();
+        }
+        if (mLeakThreshold > 0) {
+            synchronized (mAcquiredAt) {
+                mAcquiredAt.put(element, ++mOps);
+                findLeaks();
+            }
+        }
+    }
+
+    void onRelease(Object element, boolean dropped) {
+        mReleases.incrementAndGet();
+        if (dropped) {
+            mDrops.incrementAndGet();
+        }
+        mOutstanding.decrementAndGet();
+        if (mLeakThreshold > 0) {
+            synchronized (mAcquiredAt) {
+                mAcquiredAt.remove(element);
+                ++mOps;
+                findLeaks();
+            }
+        }
+    }
+
+    private void findLeaks() {
+        final long oldest = mOps - mLeakThreshold;
+        final Iterator<Map.Entry<Object, Long>> it = mAcquiredAt.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<Object, Long> entry = it.next();
+            if (entry.getValue() < oldest) {
+                final Object element = entry.getKey();
+                // Flagged once, then forgotten
+                it.remove();
+                mLeaks++;
+                if (mLeakListener != null) {
+                    mLeakListener.onLeak(this, element, mLeakThreshold);
+                }
+            }
+        }
+    }
+
+    public long getAcquires() {
+        return mHits.get() + mMisses.get();
+    }
+
+    public long getHits() {
+        return mHits.get();
+    }
+
+    public long getMisses() {
+        return mMisses.get();
+    }
+
+    public long getReleases() {
+        return mReleases.get();
+    }
+
+    /**
+     * @return Releases the pool had no room for, left to the collector.
+     */
+    public long getDrops() {
+        return mDrops.get();
+    }
+
+    /**
+     * @return Objects acquired and not yet released.
+     */
+    public int getOutstanding() {
+        return mOutstanding.get();
+    }
+
+    /**
+     * @return The most objects ever out at once.
+     */
+    public int getHighWater() {
+        return mHighWater.get();
+    }
+
+    public long getLeaks() {
+        synchronized (mAcquiredAt) {
+            return mLeaks;
+        }
+    }
+
+    public void reset() {
+        mHits.set(0);
+        mMisses.set(0);
+        mReleases.set(0);
+        mDrops.set(0);
+        mHighWater.set(mOutstanding.get());
+        synchronized (mAcquiredAt) {
+            mLeaks = 0;
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println(String.format("  %-16s acquires=%d hits=%d misses=%d drops=%d"
+                                 + " out=%d high=%d leaks=%d",
+                                 mName, getAcquires(), getHits(), getMisses(),
+                                 getDrops(), getOutstanding(), getHighWater(),
+                                 getLeaks()));
+    }
+}
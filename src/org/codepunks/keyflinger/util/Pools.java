@@ -16,13 +16,105 @@
 
 package org.codepunks.keyflinger.util;
 
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * @hide
  */
 public class Pools {
+    private static final List<PoolStats> sStats = new ArrayList<PoolStats>();
+    private static boolean sStatsEnabled;
+    private static int sLeakThreshold;
+    private static PoolStats.LeakListener sLeakListener;
+
     private Pools() {
     }
 
+    /**
+     * Have {@link #stats} hand out statistics, or stop with false.  Pools
+     * take theirs when made, so this only changes pools made later.
+     */
+    public static void setStatsEnabled(boolean enabled) {
+        synchronized (sStats) {
+            sStatsEnabled = enabled;
+        }
+    }
+
+    /**
+     * Statistics to hand to a pool, listed by {@link #dumpStats} from then
+     * on.  Every pool asking for the same name shares them.
+     *
+     * @return The statistics, or null while they are not enabled.
+     */
+    public static PoolStats stats(String name) {
+        synchronized (sStats) {
+            if (!sStatsEnabled) {
+                return null;
+            }
+            for (PoolStats stats : sStats) {
+                if (stats.getName().equals(name)) {
+                    return stats;
+                }
+            }
+            final PoolStats stats = new PoolStats(name);
+            stats.setLeakThreshold(sLeakThreshold);
+            stats.setLeakListener(sLeakListener);
+            sStats.add(stats);
+            return stats;
+        }
+    }
+
+    /**
+     * @return Every PoolStats made by {@link #stats}, in the order made.
+     */
+    public static List<PoolStats> getStats() {
+        synchronized (sStats) {
+            return new ArrayList<PoolStats>(sStats);
+        }
+    }
+
+    /**
+     * Look for leaks in every pool, those made later included, or stop
+     * looking with 0.
+     *
+     * @see PoolStats#setLeakThreshold
+     */
+    public static void setLeakThreshold(int ops) {
+        synchronized (sStats) {
+            sLeakThreshold = ops;
+            for (PoolStats stats : sStats) {
+                stats.setLeakThreshold(ops);
+            }
+        }
+    }
+
+    /**
+     * Tell the given listener of leaks in every pool, those made later
+     * included, or no one with null.
+     */
+    public static void setLeakListener(PoolStats.LeakListener listener) {
+        synchronized (sStats) {
+            sLeakListener = listener;
+            for (PoolStats stats : sStats) {
+                stats.setLeakListener(listener);
+            }
+        }
+    }
+
+    public static void dumpStats(PrintWriter pw) {
+        final List<PoolStats> all = getStats();
+        if (all.isEmpty()) {
+            pw.println("Pools: off");
+            return;
+        }
+        pw.println("Pools:");
+        for (PoolStats stats : all) {
+            stats.dump(pw);
+        }
+    }
+
     public static <T extends Poolable<T>> Pool<T> simplePool(PoolableManager<T> manager) {
         return new FinitePool<T>(manager);
     }
@@ -31,6 +123,37 @@ public class Pools {
         return new FinitePool<T>(manager, limit);
     }
 
+    public static <T extends Poolable<T>> Pool<T> finitePool(PoolableManager<T> manager, int limit,
+                                                             PoolStats stats) {
+        return new FinitePool<T>(manager, limit, stats);
+    }
+
+    /**
+     * A pool for objects only ever used on one thread, such as the UI
+     * thread, that takes no lock.  It is bound to the first thread to
+     * acquire from it, and throws if used from any other.
+     */
+    public static <T extends Poolable<T>> Pool<T> threadConfinedPool(PoolableManager<T> manager, int limit) {
+        return new ThreadConfinedPool<T>(new FinitePool<T>(manager, limit));
+    }
+
+    public static <T extends Poolable<T>> Pool<T> threadConfinedPool(PoolableManager<T> manager, int limit,
+                                                                     PoolStats stats) {
+        return new ThreadConfinedPool<T>(new FinitePool<T>(manager, limit, stats));
+    }
+
+    /**
+     * A pool that any number of threads can share without taking a lock.
+     */
+    public static <T extends Poolable<T>> Pool<T> lockFreePool(PoolableManager<T> manager, int limit) {
+        return new LockFreePool<T>(manager, limit, null);
+    }
+
+    public static <T extends Poolable<T>> Pool<T> lockFreePool(PoolableManager<T> manager, int limit,
+                                                               PoolStats stats) {
+        return new LockFreePool<T>(manager, limit, stats);
+    }
+
     public static <T extends Poolable<T>> Pool<T> synchronizedPool(Pool<T> pool) {
         return new SynchronizedPool<T>(pool);
     }
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2010 James Newton
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.codepunks.keyflinger.util;
+
+/**
+ * A pool that belongs to one thread, the first to acquire from it, and so
+ * needs no lock.  Using it from any other thread throws rather than
+ * corrupting the free list.
+ *
+ * @hide
+ */
+class ThreadConfinedPool<T extends Poolable<T>> implements Pool<T> {
+    private final Pool<T> mPool;
+    private Thread mOwner;
+
+    ThreadConfinedPool(Pool<T> pool) {
+        mPool = pool;
+    }
+
+    public T acquire() {
+        checkThread();
+        return mPool.acquire();
+    }
+
+    public void release(T element) {
+        checkThread();
+        mPool.release(element);
+    }
+
+    private void checkThread() {
+        final Thread current = Thread.currentThread();
+        if (mOwner == null) {
+            mOwner = current;
+        } else if (mOwner != current) {
+            throw new IllegalStateException("Pool owned by " + mOwner.getName()
+                                            + " used from " + current.getName());
+        }
+    }
+}
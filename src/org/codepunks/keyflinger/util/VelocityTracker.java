@@ -34,7 +34,7 @@ import android.util.Log;
  * and {@link #getXVelocity()}.
  */
 public final class VelocityTracker implements Poolable<VelocityTracker> {
-    static final int BASE_AVAIL_POINTERS = 4;
+    static final int BASE_AVAIL_POINTERS = 10;
     static final String TAG = "VelocityTracker";
     static final boolean DEBUG = false;
     static final boolean localLOGV = DEBUG || Config.LOGV;
@@ -42,30 +42,88 @@ public final class VelocityTracker implements Poolable<VelocityTracker> {
     static final int NUM_PAST = 10;
     static final int LONGEST_PAST_TIME = 200;
 
-    static final VelocityTracker[] mPool = new VelocityTracker[1];
-    private static final Pool<VelocityTracker> sPool = Pools.synchronizedPool(
-        Pools.finitePool(new PoolableManager<VelocityTracker>() {
-            public VelocityTracker newInstance() {
-            return new VelocityTracker();
-            }
+    /**
+     * Average the slopes from the oldest sample in the window to each later
+     * one but the newest, as the framework's tracker does.
+     */
+    public static final int ESTIMATOR_AVERAGE = 0;
+    /**
+     * Fit a weighted least-squares line to the samples in the window.
+     */
+    public static final int ESTIMATOR_LINEAR = 1;
+    /**
+     * Fit a weighted least-squares parabola to the samples in the window and
+     * take its slope at the newest sample.
+     */
+    public static final int ESTIMATOR_QUADRATIC = 2;
 
-            public void onAcquired(VelocityTracker element) {
+    // Smallest weighted variance of the sample times, in ms^2, the fits will
+    // solve for
+    static final double MIN_SPREAD = 1e-3;
+    // A sample's weight in the fits grows by e every WEIGHT_TIME ms, so the
+    // newest count most
+    static final double WEIGHT_TIME = 100;
+    // Running sums of the fits, NUM_SUMS of them per pointer
+    static final int SUM_W = 0;
+    static final int SUM_WT = 1;
+    static final int SUM_WT2 = 2;
+    static final int SUM_WT3 = 3;
+    static final int SUM_WT4 = 4;
+    static final int SUM_WX = 5;
+    static final int SUM_WTX = 6;
+    static final int SUM_WT2X = 7;
+    static final int SUM_WY = 8;
+    static final int SUM_WTY = 9;
+    static final int SUM_WT2Y = 10;
+    static final int NUM_SUMS = 11;
+
+    private static final class Manager implements PoolableManager<VelocityTracker> {
+        // The pool this manager fills, which its trackers go back to
+        Pool<VelocityTracker> mPool;
+
+        public VelocityTracker newInstance() {
+            final VelocityTracker tracker = new VelocityTracker();
+            tracker.mPool = mPool;
+            return tracker;
+        }
+
+        public void onAcquired(VelocityTracker element) {
             element.clear();
-            }
+        }
 
-            public void onReleased(VelocityTracker element) {
-            }
-            }, 2));
+        public void onReleased(VelocityTracker element) {
+        }
+    }
 
-    final float mPastX[][] = new float[BASE_AVAIL_POINTERS][NUM_PAST];
-    final float mPastY[][] = new float[BASE_AVAIL_POINTERS][NUM_PAST];
-    final long mPastTime[][] = new long[BASE_AVAIL_POINTERS][NUM_PAST];
+    // For callers on any thread, those with a pool of their own from
+    // newPool() take no lock
+    private static final Pool<VelocityTracker> sPool = newSharedPool();
+
+    // Samples per pointer, and pointers there is room for.  The history
+    // is held flat, sample i of pointer p at p * mDepth + i, and grown by
+    // ensurePointerCapacity() when a higher pointer shows up
+    int mDepth = NUM_PAST;
+    int mCapacity = BASE_AVAIL_POINTERS;
+    float mPastX[] = new float[BASE_AVAIL_POINTERS * NUM_PAST];
+    float mPastY[] = new float[BASE_AVAIL_POINTERS * NUM_PAST];
+    long mPastTime[] = new long[BASE_AVAIL_POINTERS * NUM_PAST];
 
     float mYVelocity[] = new float[BASE_AVAIL_POINTERS];
     float mXVelocity[] = new float[BASE_AVAIL_POINTERS];
-    int mLastTouch;
+    // Ring head and number of samples held, per pointer
+    int mLastTouch[] = new int[BASE_AVAIL_POINTERS];
+    int mCount[] = new int[BASE_AVAIL_POINTERS];
+    // Bit p of word p / 64 is set while pointer p has samples
+    long mActive[] = new long[(BASE_AVAIL_POINTERS + 63) / 64];
+
+    int mEstimator = ESTIMATOR_AVERAGE;
+    // Fit sums over the samples in the window, with times taken from the
+    // pointer's origin so they stay small
+    double mSums[] = new double[BASE_AVAIL_POINTERS * NUM_SUMS];
+    long mOrigin[] = new long[BASE_AVAIL_POINTERS];
 
     private VelocityTracker mNext;
+    private Pool<VelocityTracker> mPool;
 
     /**
      * Retrieve a new VelocityTracker object to watch the velocity of a
@@ -79,12 +137,34 @@ public final class VelocityTracker implements Poolable<VelocityTracker> {
         return sPool.acquire();
     }
 
+    /**
+     * Make a pool of trackers for a single thread, such as one per touch
+     * engine, which takes no lock and allocates nothing on release.  It is
+     * bound to the first thread to acquire from it.  Trackers acquired from
+     * it go back to it on {@link #recycle}.  All tracker pools share one
+     * set of statistics, if {@link Pools#setStatsEnabled} was on when made.
+     *
+     * @param limit How many released trackers to keep.
+     */
+    public static Pool<VelocityTracker> newPool(int limit) {
+        final Manager manager = new Manager();
+        manager.mPool = Pools.threadConfinedPool(manager, limit, Pools.stats(TAG));
+        return manager.mPool;
+    }
+
+    private static Pool<VelocityTracker> newSharedPool() {
+        final Manager manager = new Manager();
+        manager.mPool = Pools.synchronizedPool(Pools.finitePool(manager, 2,
+                                                                Pools.stats(TAG)));
+        return manager.mPool;
+    }
+
     /**
      * Return a VelocityTracker object back to be re-used by others.  You must
      * not touch the object after calling this function.
      */
     public void recycle() {
-        sPool.release(this);
+        mPool.release(this);
     }
 
     /**
@@ -103,18 +183,101 @@ public final class VelocityTracker implements Poolable<VelocityTracker> {
 
     private VelocityTracker() {
     }
+
+    /**
+     * Choose how velocity is estimated from the samples, one of
+     * {@link #ESTIMATOR_AVERAGE}, {@link #ESTIMATOR_LINEAR} or
+     * {@link #ESTIMATOR_QUADRATIC}.  The fits keep running sums as samples
+     * are added, so computing a velocity with them takes constant time.
+     * Clears the tracker if the estimator changes.
+     */
+    public void setEstimator(int estimator) {
+        if (estimator != mEstimator) {
+            mEstimator = estimator;
+            clear();
+        }
+    }
+
+    public int getEstimator() {
+        return mEstimator;
+    }
+
+    /**
+     * Lay the history out for the given number of pointers, each keeping
+     * the given number of samples.  More samples let a slow stroke fill the
+     * whole LONGEST_PAST_TIME window, at the cost of a longer walk for
+     * {@link #ESTIMATOR_AVERAGE}.  Clears the tracker.
+     *
+     * @param pointers How many pointers to make room for, more are still
+     * taken as they show up.
+     * @param depth How many samples of each pointer to keep, at least 2.
+     */
+    public void setCapacity(int pointers, int depth) {
+        if (depth < 2) {
+            throw new IllegalArgumentException("depth must be at least 2");
+        }
+        clear();
+        if (pointers == mCapacity && depth == mDepth) {
+            return;
+        }
+        mDepth = depth;
+        mCapacity = 0;
+        mPastX = new float[0];
+        mPastY = new float[0];
+        mPastTime = new long[0];
+        mXVelocity = new float[0];
+        mYVelocity = new float[0];
+        mLastTouch = new int[0];
+        mCount = new int[0];
+        mActive = new long[0];
+        mSums = new double[0];
+        mOrigin = new long[0];
+        ensurePointerCapacity(Math.max(pointers, 1));
+    }
+
+    public int getPointerCapacity() {
+        return mCapacity;
+    }
+
+    public int getHistoryDepth() {
+        return mDepth;
+    }
     
     /**
      * Reset the velocity tracker back to its initial state.
      */
     public void clear() {
-        final long[][] pastTime = mPastTime;
-        for (int p = 0; p < BASE_AVAIL_POINTERS; p++) {
-            for (int i = 0; i < NUM_PAST; i++) {
-                pastTime[p][i] = 0;
+        final long[] active = mActive;
+        final int[] count = mCount;
+        for (int w = 0; w < active.length; w++) {
+            long bits = active[w];
+            while (bits != 0) {
+                count[(w << 6) + Long.numberOfTrailingZeros(bits)] = 0;
+                bits &= bits - 1;
             }
+            active[w] = 0;
+        }
+    }
+
+    /**
+     * Forget the movements of a single pointer, for when its slot is handed
+     * to a new pointer.
+     *
+     * @param pos Which pointer to forget.
+     */
+    public void clear(int pos) {
+        if (pos < mCapacity) {
+            mCount[pos] = 0;
+            mActive[pos >> 6] &= ~(1L << pos);
         }
     }
+
+    /**
+     * @return True if the pointer has samples since it was last cleared.
+     */
+    public boolean isActive(int pos) {
+        return pos < mCapacity && (mActive[pos >> 6] & (1L << pos)) != 0;
+    }
     
     /**
      * Add a user's movement to the tracker.  You should call this for the
@@ -138,12 +301,142 @@ public final class VelocityTracker implements Poolable<VelocityTracker> {
         }
     }
 
+    /**
+     * Add a single sample of one pointer to the tracker.  This is what
+     * {@link #addMovement(MotionEvent)} does for each pointer and historical
+     * sample of an event, for callers that do not have a MotionEvent.
+     *
+     * @param pos Which pointer the sample belongs to.
+     * @param x The X position of the sample.
+     * @param y The Y position of the sample.
+     * @param time The time of the sample, in the event time base.
+     */
+    public void addMovement(int pos, float x, float y, long time) {
+        addPoint(pos, x, y, time);
+    }
+
     private void addPoint(int pos, float x, float y, long time) {
-        final int lastTouch = (mLastTouch + 1) % NUM_PAST;
-        mPastX[pos][lastTouch] = x;
-        mPastY[pos][lastTouch] = y;
-        mPastTime[pos][lastTouch] = time;
+        if (pos >= mCapacity) {
+            ensurePointerCapacity(pos + 1);
+        }
+        final boolean fit = mEstimator != ESTIMATOR_AVERAGE;
+        final long[] pastTime = mPastTime;
+        final int depth = mDepth;
+        final int base = pos * depth;
+
+        // Drop the samples gone out of the window, and the one about to be
+        // overwritten
+        int count = mCount[pos];
+        int oldest = (mLastTouch[pos] - count + 1 + depth) % depth;
+        final long acceptableTime = time - LONGEST_PAST_TIME;
+        while (count > 0 && (count == depth
+                             || pastTime[base + oldest] < acceptableTime)) {
+            if (fit) {
+                accumulate(pos, oldest, -1);
+            }
+            oldest = (oldest + 1) % depth;
+            count--;
+        }
+
+        final int lastTouch = (mLastTouch[pos] + 1) % depth;
+        mPastX[base + lastTouch] = x;
+        mPastY[base + lastTouch] = y;
+        pastTime[base + lastTouch] = time;
+        mLastTouch[pos] = lastTouch;
+        mCount[pos] = count + 1;
+        mActive[pos >> 6] |= 1L << pos;
+
+        if (fit) {
+            if (count == 0 || time - mOrigin[pos] > 2 * LONGEST_PAST_TIME) {
+                // Start the sums over from the oldest sample, which also
+                // sheds what rounding they have gathered
+                rebase(pos);
+            } else {
+                accumulate(pos, lastTouch, 1);
+            }
+        }
+    }
+
+    /**
+     * Add a sample of a pointer to its fit sums, or take it out of them with
+     * a sign of -1.
+     */
+    private void accumulate(int pos, int i, int sign) {
+        final int j = pos * mDepth + i;
+        final double t = mPastTime[j] - mOrigin[pos];
+        final double x = mPastX[j];
+        final double y = mPastY[j];
+        final double w = sign * Math.exp(t / WEIGHT_TIME);
+        final double wt = w * t;
+        final double wt2 = wt * t;
+        final double[] sums = mSums;
+        final int base = pos * NUM_SUMS;
+        sums[base + SUM_W] += w;
+        sums[base + SUM_WT] += wt;
+        sums[base + SUM_WT2] += wt2;
+        sums[base + SUM_WT3] += wt2 * t;
+        sums[base + SUM_WT4] += wt2 * t * t;
+        sums[base + SUM_WX] += w * x;
+        sums[base + SUM_WTX] += wt * x;
+        sums[base + SUM_WT2X] += wt2 * x;
+        sums[base + SUM_WY] += w * y;
+        sums[base + SUM_WTY] += wt * y;
+        sums[base + SUM_WT2Y] += wt2 * y;
+    }
+
+    private void rebase(int pos) {
+        final int count = mCount[pos];
+        final int depth = mDepth;
+        final int oldest = (mLastTouch[pos] - count + 1 + depth) % depth;
+        mOrigin[pos] = mPastTime[pos * depth + oldest];
+        final int base = pos * NUM_SUMS;
+        for (int k = 0; k < NUM_SUMS; k++) {
+            mSums[base + k] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            accumulate(pos, (oldest + i) % depth, 1);
+        }
+    }
+
+    private void ensurePointerCapacity(int count) {
+        final int old = mCapacity;
+        final int capacity = Math.max(count, old * 2);
+        final int depth = mDepth;
+        // A pointer's samples stay where they are as the arrays grow
+        final float[] pastX = new float[capacity * depth];
+        final float[] pastY = new float[capacity * depth];
+        final long[] pastTime = new long[capacity * depth];
+        System.arraycopy(mPastX, 0, pastX, 0, old * depth);
+        System.arraycopy(mPastY, 0, pastY, 0, old * depth);
+        System.arraycopy(mPastTime, 0, pastTime, 0, old * depth);
+        mPastX = pastX;
+        mPastY = pastY;
+        mPastTime = pastTime;
+        mCapacity = capacity;
+
+        final float[] xVelocity = new float[capacity];
+        final float[] yVelocity = new float[capacity];
+        System.arraycopy(mXVelocity, 0, xVelocity, 0, old);
+        System.arraycopy(mYVelocity, 0, yVelocity, 0, old);
+        mXVelocity = xVelocity;
+        mYVelocity = yVelocity;
+
+        final int[] lastTouch = new int[capacity];
+        final int[] sampleCount = new int[capacity];
+        final long[] active = new long[(capacity + 63) / 64];
+        System.arraycopy(mLastTouch, 0, lastTouch, 0, old);
+        System.arraycopy(mCount, 0, sampleCount, 0, old);
+        System.arraycopy(mActive, 0, active, 0, mActive.length);
         mLastTouch = lastTouch;
+        mCount = sampleCount;
+        mActive = active;
+
+        final double[] sums = new double[capacity * NUM_SUMS];
+        final long[] origin = new long[capacity];
+        System.arraycopy(mSums, 0, sums, 0, old * NUM_SUMS);
+        System.arraycopy(mOrigin, 0, origin, 0, old);
+        mSums = sums;
+        mOrigin = origin;
     }
 
     /**
@@ -170,55 +463,152 @@ public final class VelocityTracker implements Poolable<VelocityTracker> {
      * must be positive.
      */
     public void computeCurrentVelocity(int units, float maxVelocity) {
-        for (int pos = 0; pos < BASE_AVAIL_POINTERS; pos++) {
-            final float[] pastX = mPastX[pos];
-            final float[] pastY = mPastY[pos];
-            final long[] pastTime = mPastTime[pos];
-            final int lastTouch = mLastTouch;
-        
-            // find oldest acceptable time
-            int oldestTouch = lastTouch;
-            if (pastTime[lastTouch] > 0) { // cleared ?
-                oldestTouch = (lastTouch + 1) % NUM_PAST;
-                final float acceptableTime = pastTime[lastTouch] - LONGEST_PAST_TIME;
-                while (pastTime[oldestTouch] < acceptableTime) {
-                    oldestTouch = (oldestTouch + 1) % NUM_PAST;
-                }
+        final long[] active = mActive;
+        for (int w = 0; w < active.length; w++) {
+            long bits = active[w];
+            while (bits != 0) {
+                final int bit = Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                computeCurrentVelocity((w << 6) + bit, units, maxVelocity);
             }
-        
-            // Kind-of stupid.
-            final float oldestX = pastX[oldestTouch];
-            final float oldestY = pastY[oldestTouch];
-            final long oldestTime = pastTime[oldestTouch];
-            float accumX = 0;
-            float accumY = 0;
-            int N = (lastTouch - oldestTouch + NUM_PAST) % NUM_PAST + 1;
-            // Skip the last received event, since it is probably pretty noisy.
-            if (N > 3) N--;
-
-            for (int i=1; i < N; i++) {
-                final int j = (oldestTouch + i) % NUM_PAST;
-                final int dur = (int)(pastTime[j] - oldestTime);
-                if (dur == 0) continue;
-                float dist = pastX[j] - oldestX;
-                float vel = (dist/dur) * units;   // pixels/frame.
-                accumX = (accumX == 0) ? vel : (accumX + vel) * .5f;
-            
-                dist = pastY[j] - oldestY;
-                vel = (dist/dur) * units;   // pixels/frame.
-                accumY = (accumY == 0) ? vel : (accumY + vel) * .5f;
+        }
+    }
+
+    /**
+     * Compute the current velocity of a single pointer, as
+     * {@link #computeCurrentVelocity(int, float)} does for every pointer
+     * with samples.  Use this when only one pointer's velocity is wanted,
+     * such as the one going up.
+     *
+     * @param pos Which pointer to compute the velocity of.
+     */
+    public void computeCurrentVelocity(int pos, int units, float maxVelocity) {
+        if (!isActive(pos)) {
+            if (pos < mCapacity) {
+                mXVelocity[pos] = 0;
+                mYVelocity[pos] = 0;
             }
-            
-            mXVelocity[pos] = accumX < 0.0f ? Math.max(accumX, -maxVelocity)
-                : Math.min(accumX, maxVelocity);
-            mYVelocity[pos] = accumY < 0.0f ? Math.max(accumY, -maxVelocity)
-                : Math.min(accumY, maxVelocity);
-
-            if (localLOGV) Log.v(TAG, "Y velocity=" + mYVelocity +" X velocity="
-                                 + mXVelocity + " N=" + N);
+            return;
+        }
+        if (mEstimator != ESTIMATOR_AVERAGE) {
+            computeFitVelocity(pos, units, maxVelocity);
+            return;
+        }
+        final float[] pastX = mPastX;
+        final float[] pastY = mPastY;
+        final long[] pastTime = mPastTime;
+        final int depth = mDepth;
+        final int base = pos * depth;
+        final int lastTouch = mLastTouch[pos];
+
+        // addPoint() keeps only the samples in the window
+        final int oldestTouch = (lastTouch - mCount[pos] + 1 + depth) % depth;
+
+        // Kind-of stupid.
+        final float oldestX = pastX[base + oldestTouch];
+        final float oldestY = pastY[base + oldestTouch];
+        final long oldestTime = pastTime[base + oldestTouch];
+        float accumX = 0;
+        float accumY = 0;
+        int N = (lastTouch - oldestTouch + depth) % depth + 1;
+        // Skip the last received event, since it is probably pretty noisy.
+        if (N > 3) N--;
+
+        for (int i=1; i < N; i++) {
+            final int j = base + (oldestTouch + i) % depth;
+            final int dur = (int)(pastTime[j] - oldestTime);
+            if (dur == 0) continue;
+            float dist = pastX[j] - oldestX;
+            float vel = (dist/dur) * units;   // pixels/frame.
+            accumX = (accumX == 0) ? vel : (accumX + vel) * .5f;
+
+            dist = pastY[j] - oldestY;
+            vel = (dist/dur) * units;   // pixels/frame.
+            accumY = (accumY == 0) ? vel : (accumY + vel) * .5f;
         }
+
+        mXVelocity[pos] = accumX < 0.0f ? Math.max(accumX, -maxVelocity)
+            : Math.min(accumX, maxVelocity);
+        mYVelocity[pos] = accumY < 0.0f ? Math.max(accumY, -maxVelocity)
+            : Math.min(accumY, maxVelocity);
+
+        if (localLOGV) Log.v(TAG, "Y velocity=" + mYVelocity[pos] +" X velocity="
+                             + mXVelocity[pos] + " N=" + N);
     }
-    
+
+    /**
+     * Solve the weighted least-squares fit from the running sums, falling
+     * back from the parabola to the line when there are too few samples or
+     * their times are too close together to tell.
+     */
+    private void computeFitVelocity(int pos, int units, float maxVelocity) {
+        final double[] s = mSums;
+        final int base = pos * NUM_SUMS;
+        final double sw = s[base + SUM_W];
+        final double swt = s[base + SUM_WT];
+        final double swt2 = s[base + SUM_WT2];
+        final int count = mCount[pos];
+        double vx = 0;
+        double vy = 0;
+        boolean solved = false;
+
+        if (mEstimator == ESTIMATOR_QUADRATIC && count >= 3) {
+            final double swt3 = s[base + SUM_WT3];
+            final double swt4 = s[base + SUM_WT4];
+            // Normal equations for x = a + b t + c t^2, by Cramer's rule
+            final double m1 = swt2 * swt4 - swt3 * swt3;
+            final double m2 = swt * swt4 - swt3 * swt2;
+            final double m3 = swt * swt3 - swt2 * swt2;
+            final double det = sw * m1 - swt * m2 + swt2 * m3;
+            if (det > MIN_SPREAD * sw * sw * sw) {
+                final double tn =
+                    mPastTime[pos * mDepth + mLastTouch[pos]] - mOrigin[pos];
+                vx = slope(sw, swt, swt2, swt3, swt4, m2, m3, det, tn,
+                           s[base + SUM_WX], s[base + SUM_WTX],
+                           s[base + SUM_WT2X]);
+                vy = slope(sw, swt, swt2, swt3, swt4, m2, m3, det, tn,
+                           s[base + SUM_WY], s[base + SUM_WTY],
+                           s[base + SUM_WT2Y]);
+                solved = true;
+            }
+        }
+        if (!solved && count >= 2) {
+            // Normal equations for x = a + b t
+            final double det = sw * swt2 - swt * swt;
+            if (det > MIN_SPREAD * sw * sw) {
+                vx = (sw * s[base + SUM_WTX] - swt * s[base + SUM_WX]) / det;
+                vy = (sw * s[base + SUM_WTY] - swt * s[base + SUM_WY]) / det;
+            }
+        }
+
+        final float accumX = (float) (vx * units);
+        final float accumY = (float) (vy * units);
+        mXVelocity[pos] = accumX < 0.0f ? Math.max(accumX, -maxVelocity)
+            : Math.min(accumX, maxVelocity);
+        mYVelocity[pos] = accumY < 0.0f ? Math.max(accumY, -maxVelocity)
+            : Math.min(accumY, maxVelocity);
+
+        if (localLOGV) Log.v(TAG, "Y velocity=" + mYVelocity[pos] +" X velocity="
+                             + mXVelocity[pos] + " N=" + count);
+    }
+
+    /**
+     * @return The slope at time tn of the parabola fit to the weighted sums
+     * r0, r1 and r2 of the position times t^0, t^1 and t^2.
+     */
+    private static double slope(double sw, double swt, double swt2,
+                                double swt3, double swt4, double m2,
+                                double m3, double det, double tn,
+                                double r0, double r1, double r2) {
+        final double b = sw * (r1 * swt4 - swt3 * r2)
+            - r0 * m2
+            + swt2 * (swt * r2 - r1 * swt2);
+        final double c = sw * (swt2 * r2 - r1 * swt3)
+            - swt * (swt * r2 - r1 * swt2)
+            + r0 * m3;
+        return (b + 2 * c * tn) / det;
+    }
+
     /**
      * Retrieve the last computed X velocity.  You must first call
      * {@link #computeCurrentVelocity(int)} before calling this function.